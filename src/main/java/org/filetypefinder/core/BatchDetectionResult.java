@@ -0,0 +1,216 @@
+/*
+ *    Copyright 2014 - 2016 Yannick Watier
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package org.filetypefinder.core;
+
+import java.util.*;
+
+/**
+ * The media types detected in a batch of file binaries, stored by column: one bit set of inputs per media type, and
+ * likewise per tripped or skipped filter.
+ */
+public final class BatchDetectionResult {
+    private static final ContentKind[] CONTENT_KINDS = ContentKind.values();
+
+    private final int size;
+    private final byte[] contentKinds;
+    private final Map<String, BitSet> columns;
+    private final Map<String, BitSet> trippedFilters;
+    private final Map<String, BitSet> skippedFilters;
+
+    BatchDetectionResult(int size) {
+        this.size = size;
+        contentKinds = new byte[size];
+        columns = new LinkedHashMap<String, BitSet>();
+        trippedFilters = new HashMap<String, BitSet>();
+        skippedFilters = new HashMap<String, BitSet>();
+    }
+
+    /**
+     * @param index       - The index of the input
+     * @param contentKind - The content kind of the input
+     */
+    void setContentKind(int index, ContentKind contentKind) {
+        contentKinds[index] = (byte) contentKind.ordinal();
+    }
+
+    /**
+     * @param mediaType - The media type to be added
+     * @param inputs    - The inputs where the media type was detected
+     */
+    void addMediaType(String mediaType, BitSet inputs) {
+        if (mediaType == null || inputs.isEmpty()) {
+            return;
+        }
+
+        BitSet column = columns.get(mediaType);
+
+        if (column == null) {
+            columns.put(mediaType, (BitSet) inputs.clone());
+        } else {
+            column.or(inputs);
+        }
+    }
+
+    /**
+     * @param filterName - The name of the filter that was not executed or failed
+     * @param index      - The index of the input
+     */
+    void addTrippedFilter(String filterName, int index) {
+        addInput(trippedFilters, filterName, index);
+    }
+
+    /**
+     * @param filterName - The name of the filter that was not executed because of its byte budget
+     * @param index      - The index of the input
+     */
+    void addSkippedFilter(String filterName, int index) {
+        addInput(skippedFilters, filterName, index);
+    }
+
+    private void addInput(Map<String, BitSet> filters, String filterName, int index) {
+        if (filterName == null) {
+            return;
+        }
+
+        BitSet inputs = filters.get(filterName);
+
+        if (inputs == null) {
+            inputs = new BitSet(size);
+            filters.put(filterName, inputs);
+        }
+
+        inputs.set(index);
+    }
+
+    /**
+     * @return The number of inputs in the batch
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @param index     - The index of the input
+     * @param mediaType - The media type to be validated
+     * @return True if the media type was detected in the input, False if not
+     */
+    public boolean contains(int index, String mediaType) {
+        BitSet column = columns.get(mediaType);
+
+        return column != null && column.get(index);
+    }
+
+    /**
+     * @param index - The index of the input
+     * @return The kind of content found in the prefix of the input
+     */
+    public ContentKind getContentKind(int index) {
+        return CONTENT_KINDS[contentKinds[index]];
+    }
+
+    /**
+     * @param index - The index of the input
+     * @return A Set containing the media types detected in the input or an empty set if nothing was detected
+     */
+    public Set<String> getMediaTypes(int index) {
+        return namesOf(columns, index);
+    }
+
+    /**
+     * @return A Set containing the media types detected in at least one input
+     */
+    public Set<String> getMediaTypes() {
+        return Collections.unmodifiableSet(columns.keySet());
+    }
+
+    /**
+     * @param mediaType - The media type
+     * @return A BitSet containing the indexes of the inputs where the media type was detected
+     */
+    public BitSet getInputs(String mediaType) {
+        BitSet column = columns.get(mediaType);
+
+        return (column != null) ? (BitSet) column.clone() : new BitSet(size);
+    }
+
+    /**
+     * @return A Set containing the names of the filters skipped by their circuit breaker (or failed) on at least one input, an empty set if none
+     */
+    public Set<String> getTrippedFilters() {
+        return Collections.unmodifiableSet(trippedFilters.keySet());
+    }
+
+    /**
+     * @param index - The index of the input
+     * @return A Set containing the names of the filters skipped by their circuit breaker (or failed) on the input, an empty set if none
+     */
+    public Set<String> getTrippedFilters(int index) {
+        return namesOf(trippedFilters, index);
+    }
+
+    /**
+     * @return A Set containing the names of the filters skipped on at least one input because of their byte budget, an empty set if none
+     */
+    public Set<String> getSkippedFilters() {
+        return Collections.unmodifiableSet(skippedFilters.keySet());
+    }
+
+    /**
+     * @param index - The index of the input
+     * @return A Set containing the names of the filters skipped because the input exceeds their byte budget, an empty set if none
+     */
+    public Set<String> getSkippedFilters(int index) {
+        return namesOf(skippedFilters, index);
+    }
+
+    /**
+     * @return True if at least one filter was skipped on at least one input, some results may be incomplete
+     */
+    public boolean isPartial() {
+        return !trippedFilters.isEmpty() || !skippedFilters.isEmpty();
+    }
+
+    /**
+     * @param index - The index of the input
+     * @return True if at least one filter was skipped on the input, its result may be incomplete
+     */
+    public boolean isPartial(int index) {
+        return contains(trippedFilters, index) || contains(skippedFilters, index);
+    }
+
+    private static boolean contains(Map<String, BitSet> columns, int index) {
+        for (BitSet inputs : columns.values()) {
+            if (inputs.get(index)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private static Set<String> namesOf(Map<String, BitSet> columns, int index) {
+        Set<String> names = new HashSet<String>();
+
+        for (Map.Entry<String, BitSet> column : columns.entrySet()) {
+            if (column.getValue().get(index)) {
+                names.add(column.getKey());
+            }
+        }
+
+        return names;
+    }
+}
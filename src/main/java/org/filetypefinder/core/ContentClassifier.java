@@ -0,0 +1,204 @@
+/*
+ *    Copyright 2014 - 2016 Yannick Watier
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package org.filetypefinder.core;
+
+/**
+ * Classify a file binary as text or binary from a byte histogram of its prefix, before the filters are executed.
+ */
+public final class ContentClassifier {
+    /**
+     * The maximum number of bytes sampled from the start of the file binary
+     */
+    public static final int SAMPLE_SIZE = 8192;
+
+    private static final boolean[] CONTROL_BYTES;
+
+    static {
+        CONTROL_BYTES = new boolean[256];
+
+        for (int i = 0x01; i < 0x20; i++) {
+            CONTROL_BYTES[i] = true;
+        }
+
+        //The whitespaces, the form feed and the escape are found in text files
+        CONTROL_BYTES['\t'] = false;
+        CONTROL_BYTES['\n'] = false;
+        CONTROL_BYTES['\r'] = false;
+        CONTROL_BYTES['\f'] = false;
+        CONTROL_BYTES[0x1B] = false;
+        CONTROL_BYTES[0x7F] = true;
+    }
+
+    private ContentClassifier() {
+    }
+
+    /**
+     * @param bytes - The file binary to be analysed
+     * @return The kind of content of the file binary, AMBIGUOUS if there's not enough information or if the bytes parameter is Null
+     */
+    public static ContentKind classify(byte[] bytes) {
+        if (bytes == null || bytes.length == 0) {
+            return ContentKind.AMBIGUOUS;
+        }
+
+        int length = Math.min(bytes.length, SAMPLE_SIZE);
+
+        if (length >= 2 && ((bytes[0] == (byte) 0xFE && bytes[1] == (byte) 0xFF) || (bytes[0] == (byte) 0xFF && bytes[1] == (byte) 0xFE))) {
+            return ContentKind.UTF16;
+        }
+
+        int[] histogram = new int[256];
+        int evenZeros = 0;
+        int oddZeros = 0;
+
+        //Branch free: the zeros are counted with the sign bit of (b - 1)
+        int i = 0;
+        for (; i + 1 < length; i += 2) {
+            int even = bytes[i] & 0xFF;
+            int odd = bytes[i + 1] & 0xFF;
+
+            histogram[even]++;
+            histogram[odd]++;
+            evenZeros += (even - 1) >>> 31;
+            oddZeros += (odd - 1) >>> 31;
+        }
+
+        if (i < length) {
+            int even = bytes[i] & 0xFF;
+
+            histogram[even]++;
+            evenZeros += (even - 1) >>> 31;
+        }
+
+        int controls = 0;
+        int high = 0;
+
+        for (int value = 0; value < 256; value++) {
+            if (CONTROL_BYTES[value]) {
+                controls += histogram[value];
+            } else if (value >= 0x80) {
+                high += histogram[value];
+            }
+        }
+
+        if (histogram[0] > 0) {
+            if (!isUtf16(evenZeros, oddZeros, length)) {
+                return ContentKind.BINARY;
+            }
+
+            //Without a BOM, the zeros of a binary table (ex: the offsets of an ar symbol table) can look like UTF-16
+            return (controls == 0) ? ContentKind.UTF16 : ContentKind.AMBIGUOUS;
+        }
+
+        if (controls > 0) {
+            return (controls * 100 > length) ? ContentKind.BINARY : ContentKind.AMBIGUOUS;
+        }
+
+        if (high == 0) {
+            return ContentKind.ASCII;
+        }
+
+        return isUtf8(bytes, length, length < bytes.length) ? ContentKind.UTF8 : ContentKind.AMBIGUOUS;
+    }
+
+    /**
+     * @param accepted - The content kinds accepted by a filter, an empty array accepts everything
+     * @param detected - The content kind of the file binary
+     * @return True if the filter can apply to the file binary, False if not
+     */
+    public static boolean accepts(ContentKind[] accepted, ContentKind detected) {
+        if (accepted == null || accepted.length == 0 || detected == null || detected == ContentKind.AMBIGUOUS) {
+            return true;
+        }
+
+        for (ContentKind contentKind : accepted) {
+            if (contentKind == detected || contentKind == ContentKind.AMBIGUOUS ||
+                    (contentKind == ContentKind.UTF8 && detected == ContentKind.ASCII)) { //ASCII is valid UTF-8
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * @param evenZeros - The number of zeros at the even positions
+     * @param oddZeros  - The number of zeros at the odd positions
+     * @param length    - The length of the sample
+     * @return True if the zeros are the high bytes of UTF-16 code units (mostly on one side only)
+     */
+    private static boolean isUtf16(int evenZeros, int oddZeros, int length) {
+        int half = length / 2;
+
+        if (half == 0) {
+            return false;
+        }
+
+        int most = Math.max(evenZeros, oddZeros);
+        int least = Math.min(evenZeros, oddZeros);
+
+        return most * 10 >= half * 4 && least * 20 <= half;
+    }
+
+    /**
+     * @param bytes     - The file binary
+     * @param length    - The length of the sample
+     * @param truncated - True if the sample is a prefix, a sequence cut at the end is then allowed
+     * @return True if the sample is valid UTF-8
+     */
+    private static boolean isUtf8(byte[] bytes, int length, boolean truncated) {
+        int i = 0;
+
+        while (i < length) {
+            int value = bytes[i] & 0xFF;
+            int continuation;
+
+            if (value < 0x80) {
+                i++;
+                continue;
+            } else if (value >= 0xC2 && value <= 0xDF) {
+                continuation = 1;
+            } else if (value >= 0xE0 && value <= 0xEF) {
+                continuation = 2;
+            } else if (value >= 0xF0 && value <= 0xF4) {
+                continuation = 3;
+            } else {
+                return false;
+            }
+
+            if (i + continuation >= length) {
+                for (int j = i + 1; j < length; j++) {
+                    if ((bytes[j] & 0xC0) != 0x80) {
+                        return false;
+                    }
+                }
+
+                return truncated;
+            }
+
+            for (int j = 1; j <= continuation; j++) {
+                if ((bytes[i + j] & 0xC0) != 0x80) {
+                    return false;
+                }
+            }
+
+            i += continuation + 1;
+        }
+
+        return true;
+    }
+}
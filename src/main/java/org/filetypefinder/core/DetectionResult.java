@@ -0,0 +1,108 @@
+/*
+ *    Copyright 2014 - 2016 Yannick Watier
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package org.filetypefinder.core;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * The media types detected in a file binary and its content kind, with the filters that were skipped (opened circuit breaker or byte budget).
+ */
+public final class DetectionResult {
+    private final ContentKind contentKind;
+    private final Set<String> mediaTypes;
+    private final Set<String> trippedFilters;
+    private final Set<String> skippedFilters;
+
+    DetectionResult(ContentKind contentKind) {
+        this.contentKind = contentKind;
+        mediaTypes = new HashSet<String>();
+        trippedFilters = new HashSet<String>();
+        skippedFilters = new HashSet<String>();
+    }
+
+    /**
+     * @param mediaType - The media type to be added
+     */
+    void addMediaType(String mediaType) {
+        if (mediaType != null) {
+            mediaTypes.add(mediaType);
+        }
+    }
+
+    /**
+     * @param filterName - The name of the filter that was not executed or failed
+     */
+    void addTrippedFilter(String filterName) {
+        if (filterName != null) {
+            trippedFilters.add(filterName);
+        }
+    }
+
+    /**
+     * @param filterName - The name of the filter that was not executed because of its byte budget
+     */
+    void addSkippedFilter(String filterName) {
+        if (filterName != null) {
+            skippedFilters.add(filterName);
+        }
+    }
+
+    /**
+     * @param mediaType - The media type to be validated
+     * @return True if the media type was detected, False if not
+     */
+    public boolean contains(String mediaType) {
+        return mediaTypes.contains(mediaType);
+    }
+
+    /**
+     * @return The kind of content found in the prefix of the file binary
+     */
+    public ContentKind getContentKind() {
+        return contentKind;
+    }
+
+    /**
+     * @return A Set containing the detected media types or an empty set if nothing was detected
+     */
+    public Set<String> getMediaTypes() {
+        return Collections.unmodifiableSet(mediaTypes);
+    }
+
+    /**
+     * @return A Set containing the names of the filters skipped by their circuit breaker (or failed), an empty set if none
+     */
+    public Set<String> getTrippedFilters() {
+        return Collections.unmodifiableSet(trippedFilters);
+    }
+
+    /**
+     * @return A Set containing the names of the filters skipped because the input exceeds their byte budget, an empty set if none
+     */
+    public Set<String> getSkippedFilters() {
+        return Collections.unmodifiableSet(skippedFilters);
+    }
+
+    /**
+     * @return True if at least one filter was skipped, the result may be incomplete
+     */
+    public boolean isPartial() {
+        return !trippedFilters.isEmpty() || !skippedFilters.isEmpty();
+    }
+}
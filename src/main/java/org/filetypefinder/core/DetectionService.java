@@ -16,9 +16,18 @@
 
 package org.filetypefinder.core;
 
+import org.filetypefinder.index.DetectionIndex;
 import org.filetypefinder.tree.Tree;
 import org.filetypefinder.tree.TreeElement;
 
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.*;
 
 /**
@@ -26,6 +35,11 @@ import java.util.*;
  */
 
 public final class DetectionService {
+    /**
+     * The maximum size (in bytes) of a scanned file, a larger file cannot be read in a single array
+     */
+    static final long MAX_SCAN_SIZE = Integer.MAX_VALUE - 8;
+
     private static final FilterClassLoader FILTER_CLASS_LOADER;
     private static final DetectionService OUR_INSTANCE;
     private static final List<Tree> MAPPED_FILTERS;
@@ -36,15 +50,31 @@ public final class DetectionService {
         OUR_INSTANCE = new DetectionService();
     }
 
+    //Built once and never modified, read without locking on the hot path
+    private final Map<Filter, FilterCircuitBreaker> circuitBreakers;
+
     private DetectionService() {
 
+        Map<Filter, FilterCircuitBreaker> breakers = new HashMap<Filter, FilterCircuitBreaker>();
+
         //Create the tree(s) from the root(s)
         for (Filter filter : FILTER_CLASS_LOADER.getRootFilters()) {
             Tree tree = new Tree(new TreeElement(filter));
 
-            buildTree(tree, tree.getRoot());
+            addCircuitBreaker(filter, breakers);
+            buildTree(tree, tree.getRoot(), breakers);
+
+            EnumSet<ContentKind> contentKinds = EnumSet.noneOf(ContentKind.class);
+            if (addContentKinds(tree.getRoot(), contentKinds)) {
+                tree.setContentKinds(contentKinds.toArray(new ContentKind[contentKinds.size()]));
+            } else {
+                tree.setContentKinds(new ContentKind[0]); //At least one element accepts any content
+            }
+
             MAPPED_FILTERS.add(tree);
         }
+
+        circuitBreakers = Collections.unmodifiableMap(breakers);
     }
 
     public static DetectionService getInstance() {
@@ -54,8 +84,9 @@ public final class DetectionService {
     /**
      * @param tree              - The tree to be analysed
      * @param currentRootFilter - The TreeElement to be treated
+     * @param breakers          - The map that will be filled with the circuit breakers of the filters
      */
-    private void buildTree(Tree tree, TreeElement currentRootFilter) {
+    private void buildTree(Tree tree, TreeElement currentRootFilter, Map<Filter, FilterCircuitBreaker> breakers) {
 
         if (currentRootFilter == null) {
             return;
@@ -74,12 +105,48 @@ public final class DetectionService {
             if (childrenFiltersByName != null) {
 
                 TreeElement treeElement = new TreeElement(childrenFiltersByName);
+                addCircuitBreaker(childrenFiltersByName, breakers);
                 treeElement.addParents(currentRootFilter);
 
                 currentRootFilter.addChildren(treeElement);
-                buildTree(tree, treeElement);
+                buildTree(tree, treeElement, breakers);
+            }
+        }
+    }
+
+    /**
+     * @param element      - The TreeElement to be treated, with its children
+     * @param contentKinds - The set that will be filled with the content kinds accepted by the elements
+     * @return False if an element accepts any content (the tree can never be skipped), True if not
+     */
+    private static boolean addContentKinds(TreeElement element, Set<ContentKind> contentKinds) {
+        ContentKind[] accepted = element.getContentKinds();
+
+        if (accepted == null || accepted.length == 0) {
+            return false;
+        }
+
+        contentKinds.addAll(Arrays.asList(accepted));
+
+        for (TreeElement child : element.getChildren()) {
+            if (!addContentKinds(child, contentKinds)) {
+                return false;
             }
         }
+
+        return true;
+    }
+
+    /**
+     * @param filter   - The filter to be guarded by a circuit breaker, only if it declares a budget
+     * @param breakers - The map that will be filled with the circuit breaker
+     */
+    private static void addCircuitBreaker(Filter filter, Map<Filter, FilterCircuitBreaker> breakers) {
+        FilterCircuitBreaker circuitBreaker = new FilterCircuitBreaker(filter.getClass().getAnnotation(FilterProperties.class));
+
+        if (circuitBreaker.hasBudget()) {
+            breakers.put(filter, circuitBreaker);
+        }
     }
 
     /**
@@ -92,38 +159,330 @@ public final class DetectionService {
             return null;
         }
 
-        Set<String> detectedElements = new HashSet<String>();
+        return analyse(bytes).contains(requestedMediaType);
+    }
+
+    /**
+     * Every filter is executed at most once on the file binary, independently of the result of its parent: a child
+     * can detect its media type even if its parent did not (unlike {@link #detectBatch(byte[][])}).
+     *
+     * @param bytes - The file binary to be analysed
+     * @return A DetectionResult containing the detected media types and the tripped filters or Null if the bytes parameter is Null
+     */
+    public DetectionResult analyse(byte[] bytes) {
+        if (bytes == null) {
+            return null;
+        }
+
+        ContentKind contentKind = ContentClassifier.classify(bytes);
+        DetectionResult result = new DetectionResult(contentKind);
 
         if (bytes.length > 0) {
             for (Tree tree : MAPPED_FILTERS) {
-                for (TreeElement leaf : tree.getLeafs()) {
-                    findFilter(leaf, detectedElements, bytes);
+                if (!ContentClassifier.accepts(tree.getContentKinds(), contentKind)) {
+                    continue; //None of the filters of the tree can apply
                 }
+
+                findFilter(tree.getRoot(), result, bytes);
             }
         }
 
-        return detectedElements.contains(requestedMediaType);
+        return result;
     }
 
     /**
-     * @param element - The TreeElement to be treated
-     * @param set     - A set of String that will be filled with the media type
+     * Analyse a file or all the files inside a directory; only the files that are new or changed since they were
+     * indexed (or indexed with another filter set) are read and analysed, the others only cost a metadata lookup.
+     * The symbolic links are not followed and the files larger than 2 GB are not analysed. Once every indexed
+     * directory is scanned, {@link DetectionIndex#prune()} removes the entries of the deleted files.
+     *
+     * @param file  - The file or directory to be analysed
+     * @param index - The index to read and update
+     * @return The number of files analysed by the filters or -1 if there's a null parameter
+     * @throws IOException If the index cannot be updated
+     */
+    public int scan(File file, DetectionIndex index) throws IOException {
+        if (file == null || index == null) {
+            return -1;
+        }
+
+        ScanVisitor visitor = new ScanVisitor(index, FILTER_CLASS_LOADER.getFilterSetVersion());
+
+        try {
+            //The attributes of each entry come from a single stat call, without following the links
+            Files.walkFileTree(file.toPath().toAbsolutePath(), visitor);
+        } finally {
+            index.flush();
+        }
+
+        return visitor.analysed;
+    }
+
+    /**
+     * @param path          - The path of the file
+     * @param attributes    - The attributes of the file, read while walking the directory
+     * @param index         - The index to read and update
+     * @param filterVersion - The version of the loaded filter set
+     * @return True if the file was analysed by the filters, False if it was skipped or is indexed
+     * @throws IOException If the index cannot be updated
+     */
+    private boolean scanFile(Path path, BasicFileAttributes attributes, DetectionIndex index, int filterVersion) throws IOException {
+        if (!attributes.isRegularFile()) {
+            return false; //A link is not followed (its target is scanned with its own path), nor is a device or a pipe read
+        }
+
+        String name = path.toString();
+        long size = attributes.size();
+        long lastModified = attributes.lastModifiedTime().toMillis();
+
+        if (size > MAX_SCAN_SIZE || index.lookup(name, size, lastModified, filterVersion) != null) {
+            return false;
+        }
+
+        byte[] bytes;
+        try {
+            bytes = Files.readAllBytes(path);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        }
+
+        DetectionResult result = analyse(bytes);
+
+        if (result.getTrippedFilters().isEmpty()) { //A tripped filter may have missed a media type, analyse it again next time
+            index.put(name, size, lastModified, filterVersion, result.getMediaTypes());
+        }
+
+        return true;
+    }
+
+    /**
+     * @return A Set containing the names of the filters currently disabled by their circuit breaker
+     */
+    public Set<String> getTrippedFilters() {
+        Set<String> trippedFilters = new HashSet<String>();
+
+        for (Map.Entry<Filter, FilterCircuitBreaker> entry : circuitBreakers.entrySet()) {
+            if (entry.getValue().isTripped()) {
+                trippedFilters.add(entry.getKey().getClass().getSimpleName());
+            }
+        }
+
+        return trippedFilters;
+    }
+
+    /**
+     * Walk the tree from the root, so every TreeElement is treated once
+     *
+     * @param element - The TreeElement to be treated, with its children
+     * @param result  - The DetectionResult that will be filled with the media type
      * @param bytes   - The file binary to be analysed
      */
-    private void findFilter(TreeElement element, Set<String> set, byte[] bytes) {
+    private void findFilter(TreeElement element, DetectionResult result, byte[] bytes) {
 
-        if (element == null || bytes == null || set == null) {
+        if (element == null || bytes == null || result == null) {
             return;
         }
 
         Filter currentFilter = element.getCurrent();
 
-        if (currentFilter != null) {
-            if (currentFilter.detect(bytes)) {
-                set.add(element.getMimeType());
+        if (currentFilter != null && ContentClassifier.accepts(element.getContentKinds(), result.getContentKind())) {
+            FilterCircuitBreaker circuitBreaker = circuitBreakers.get(currentFilter);
+
+            if (circuitBreaker != null && circuitBreaker.exceedsByteBudget(bytes.length)) {
+                result.addSkippedFilter(currentFilter.getClass().getSimpleName());
+            } else {
+                Boolean detected = runFilter(currentFilter, circuitBreaker, bytes);
+
+                if (detected == null) {
+                    result.addTrippedFilter(currentFilter.getClass().getSimpleName());
+                } else if (detected) {
+                    result.addMediaType(element.getMimeType());
+                }
             }
         }
 
-        findFilter(element.getParent(), set, bytes);
+        for (TreeElement child : element.getChildren()) {
+            findFilter(child, result, bytes);
+        }
+    }
+
+    /**
+     * Evaluate the forest one filter at a time across the whole batch; a child filter is only executed on the inputs
+     * detected by its parent filter. Unlike {@link #analyse(byte[])}, which executes every filter independently of
+     * its parent, a child media type is never reported for an input missed by the parent.
+     *
+     * @param inputs - The file binaries to be analysed, a Null element is analysed as an empty file binary
+     * @return A BatchDetectionResult containing the detected media types of each input or Null if the inputs parameter is Null
+     */
+    public BatchDetectionResult detectBatch(byte[][] inputs) {
+        if (inputs == null) {
+            return null;
+        }
+
+        BatchDetectionResult result = new BatchDetectionResult(inputs.length);
+
+        for (int i = 0; i < inputs.length; i++) {
+            result.setContentKind(i, ContentClassifier.classify(inputs[i]));
+        }
+
+        for (Tree tree : MAPPED_FILTERS) {
+            TreeElement root = tree.getRoot();
+            BitSet alive = new BitSet(inputs.length);
+
+            for (int i = 0; i < inputs.length; i++) {
+                if (inputs[i] != null && inputs[i].length > 0 && ContentClassifier.accepts(tree.getContentKinds(), result.getContentKind(i))) {
+                    alive.set(i);
+                }
+            }
+
+            filterLevel(root, alive, result, inputs);
+        }
+
+        return result;
+    }
+
+    /**
+     * @param inputs - The file binaries to be analysed, a Null element is analysed as an empty file binary
+     * @return A BatchDetectionResult containing the detected media types of each input or Null if the inputs parameter is Null
+     */
+    public BatchDetectionResult detectBatch(List<ByteBuffer> inputs) {
+        if (inputs == null) {
+            return null;
+        }
+
+        byte[][] bytes = new byte[inputs.size()][];
+
+        int i = 0;
+        for (ByteBuffer input : inputs) {
+            bytes[i++] = toBytes(input);
+        }
+
+        return detectBatch(bytes);
+    }
+
+    /**
+     * @param element - The TreeElement to be executed on the alive inputs
+     * @param alive   - The inputs detected by the parent of the TreeElement
+     * @param result  - The BatchDetectionResult that will be filled with the media type
+     * @param inputs  - The file binaries to be analysed
+     */
+    private void filterLevel(TreeElement element, BitSet alive, BatchDetectionResult result, byte[][] inputs) {
+
+        if (element == null || alive.isEmpty()) {
+            return;
+        }
+
+        Filter currentFilter = element.getCurrent();
+
+        if (currentFilter == null) {
+            return;
+        }
+
+        ContentKind[] contentKinds = element.getContentKinds();
+        FilterCircuitBreaker circuitBreaker = circuitBreakers.get(currentFilter);
+        BitSet detected = new BitSet(inputs.length);
+
+        for (int i = alive.nextSetBit(0); i >= 0; i = alive.nextSetBit(i + 1)) {
+            if (!ContentClassifier.accepts(contentKinds, result.getContentKind(i))) {
+                continue;
+            }
+
+            if (circuitBreaker != null && circuitBreaker.exceedsByteBudget(inputs[i].length)) {
+                result.addSkippedFilter(currentFilter.getClass().getSimpleName(), i);
+                continue;
+            }
+
+            Boolean value = runFilter(currentFilter, circuitBreaker, inputs[i]);
+
+            if (value == null) {
+                result.addTrippedFilter(currentFilter.getClass().getSimpleName(), i);
+            } else if (value) {
+                detected.set(i);
+            }
+        }
+
+        result.addMediaType(element.getMimeType(), detected);
+
+        for (TreeElement child : element.getChildren()) {
+            filterLevel(child, detected, result, inputs);
+        }
+    }
+
+    /**
+     * @param buffer - The ByteBuffer to be converted, its position is not changed
+     * @return A byte[] containing the remaining bytes of the buffer (its backing array if they are the same) or Null if the buffer parameter is Null
+     */
+    private static byte[] toBytes(ByteBuffer buffer) {
+        if (buffer == null) {
+            return null;
+        }
+
+        if (buffer.hasArray() && buffer.arrayOffset() == 0 && buffer.position() == 0 && buffer.remaining() == buffer.array().length) {
+            return buffer.array();
+        }
+
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.duplicate().get(bytes);
+
+        return bytes;
+    }
+
+    /**
+     * @param filter         - The filter to be executed
+     * @param circuitBreaker - The circuit breaker of the filter, Null if the filter has no budget
+     * @param bytes          - The file binary to be analysed, within the byte budget of the filter
+     * @return True if the filter detected the file binary, False if not or Null if the filter is tripped or failed
+     */
+    private Boolean runFilter(Filter filter, FilterCircuitBreaker circuitBreaker, byte[] bytes) {
+        if (circuitBreaker == null) {
+            return filter.detect(bytes);
+        }
+
+        long generation = circuitBreaker.allowRequest();
+
+        if (generation == FilterCircuitBreaker.REJECTED) {
+            return null;
+        }
+
+        long elapsed = -1;
+        long start = System.nanoTime();
+
+        try {
+            boolean detected = filter.detect(bytes);
+            elapsed = System.nanoTime() - start;
+            return detected;
+        } catch (RuntimeException e) { //Isolated, the other filters and the other inputs are still analysed
+            return null;
+        } finally {
+            circuitBreaker.record(generation, elapsed);
+        }
+    }
+
+    private final class ScanVisitor extends SimpleFileVisitor<Path> {
+        private final DetectionIndex index;
+        private final int filterVersion;
+        private int analysed;
+
+        private ScanVisitor(DetectionIndex index, int filterVersion) {
+            this.index = index;
+            this.filterVersion = filterVersion;
+        }
+
+        @Override
+        public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+            if (scanFile(file, attrs, index, filterVersion)) {
+                analysed++;
+            }
+
+            return FileVisitResult.CONTINUE;
+        }
+
+        @Override
+        public FileVisitResult visitFileFailed(Path file, IOException exc) {
+            exc.printStackTrace(); //An unreadable file or directory doesn't stop the scan
+
+            return FileVisitResult.CONTINUE;
+        }
     }
 }
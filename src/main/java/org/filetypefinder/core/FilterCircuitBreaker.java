@@ -0,0 +1,168 @@
+/*
+ *    Copyright 2014 - 2016 Yannick Watier
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package org.filetypefinder.core;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Keep track of the budget breaches of a filter; once the filter exceeded its time budget (or failed) too many times
+ * in a row, the breaker is opened and the filter is skipped until a single probe is allowed (half-open) to close it
+ * again. The byte budget depends on the input only, it is checked before the execution and never opens the breaker.
+ * <p>
+ * Lock free: a closed breaker only costs a volatile read per execution. Every change of state starts a new
+ * generation, a detection is only recorded against the generation it was allowed in, so a detection started before
+ * the breaker opened can never be taken as the result of the probe.
+ */
+final class FilterCircuitBreaker {
+    static final int DEFAULT_BREACH_THRESHOLD = 3;
+    static final long DEFAULT_OPEN_DURATION = TimeUnit.SECONDS.toNanos(30);
+
+    /**
+     * Returned by {@link #allowRequest()} when the filter must not be executed
+     */
+    static final long REJECTED = -1;
+
+    private final long timeBudget;
+    private final long byteBudget;
+    private final int breachThreshold;
+    private final long openDuration;
+
+    private final AtomicReference<Status> status;
+    private final AtomicInteger breaches;
+
+    FilterCircuitBreaker(FilterProperties properties) {
+        this((properties != null) ? TimeUnit.MILLISECONDS.toNanos(properties.timeBudget()) : 0,
+                (properties != null) ? properties.byteBudget() : 0,
+                DEFAULT_BREACH_THRESHOLD,
+                DEFAULT_OPEN_DURATION);
+    }
+
+    /**
+     * @param timeBudget      - The maximum time (in nanoseconds) of a detection, 0 for no limit
+     * @param byteBudget      - The maximum size (in bytes) of the file binary, 0 for no limit
+     * @param breachThreshold - The number of consecutive breaches needed to open the breaker
+     * @param openDuration    - The time (in nanoseconds) to wait before probing an opened breaker
+     */
+    FilterCircuitBreaker(long timeBudget, long byteBudget, int breachThreshold, long openDuration) {
+        this.timeBudget = timeBudget;
+        this.byteBudget = byteBudget;
+        this.breachThreshold = breachThreshold;
+        this.openDuration = openDuration;
+        status = new AtomicReference<Status>(new Status(State.CLOSED, 0, 0));
+        breaches = new AtomicInteger();
+    }
+
+    /**
+     * @return True if the filter has a time or byte budget to enforce
+     */
+    boolean hasBudget() {
+        return timeBudget > 0 || byteBudget > 0;
+    }
+
+    /**
+     * @return The generation to be given to {@link #record(long, long)} once the filter is executed, or REJECTED if
+     * the breaker is opened (or already probing)
+     */
+    long allowRequest() {
+        while (true) {
+            Status current = status.get();
+
+            switch (current.state) {
+                case CLOSED:
+                    return current.generation;
+                case OPEN:
+                    if (System.nanoTime() - current.openedAt < openDuration) {
+                        return REJECTED;
+                    }
+
+                    Status probe = new Status(State.HALF_OPEN, current.generation + 1, current.openedAt);
+                    if (status.compareAndSet(current, probe)) {
+                        return probe.generation;
+                    }
+                    break; //Changed by another thread, read it again
+                default:
+                    return REJECTED; //Only one probe at a time
+            }
+        }
+    }
+
+    /**
+     * @param generation - The generation returned by {@link #allowRequest()} before the execution
+     * @param elapsed    - The time (in nanoseconds) taken by the detection, or -1 if the filter failed
+     */
+    void record(long generation, long elapsed) {
+        Status current = status.get();
+
+        if (current.generation != generation) {
+            return; //Allowed before the last change of state, it says nothing about the current one
+        }
+
+        boolean breach = elapsed < 0 || (timeBudget > 0 && elapsed > timeBudget);
+
+        if (current.state == State.HALF_OPEN) {
+            if (breach) {
+                status.compareAndSet(current, new Status(State.OPEN, generation + 1, System.nanoTime()));
+            } else {
+                breaches.set(0);
+                status.compareAndSet(current, new Status(State.CLOSED, generation + 1, 0));
+            }
+        } else if (breach) {
+            if (breaches.incrementAndGet() >= breachThreshold &&
+                    status.compareAndSet(current, new Status(State.OPEN, generation + 1, System.nanoTime()))) {
+                breaches.set(0);
+            }
+        } else if (breaches.get() != 0) { //Read first, so the usual detection doesn't write to a shared line
+            breaches.set(0);
+        }
+    }
+
+    /**
+     * @param length - The size (in bytes) of the file binary
+     * @return True if the file binary is larger than the byte budget, the filter must not be executed on it
+     */
+    boolean exceedsByteBudget(long length) {
+        return byteBudget > 0 && length > byteBudget;
+    }
+
+    /**
+     * @return True if the breaker is opened or half-opened
+     */
+    boolean isTripped() {
+        return status.get().state != State.CLOSED;
+    }
+
+    private enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    /**
+     * An immutable state of the breaker, replaced as a whole with a compare and set
+     */
+    private static final class Status {
+        private final State state;
+        private final long generation;
+        private final long openedAt;
+
+        private Status(State state, long generation, long openedAt) {
+            this.state = state;
+            this.generation = generation;
+            this.openedAt = openedAt;
+        }
+    }
+}
@@ -16,31 +16,36 @@
 
 package org.filetypefinder.core;
 
-import java.io.*;
+import java.io.File;
+import java.io.FileFilter;
 import java.net.URISyntaxException;
 import java.net.URL;
 import java.security.CodeSource;
 import java.util.*;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipInputStream;
+import java.util.concurrent.*;
 
 /**
  * Created by Yannick on 2/16/2016.
  */
 public final class FilterClassLoader extends ClassLoader {
+    /**
+     * The system property containing the plugin sources, separated by the path separator; a source can be a jar or
+     * a class directory (the jars directly inside the directory are also loaded as plugins)
+     */
+    public static final String PLUGINS_PROPERTY = "filetypefinder.plugins";
+
     private static final Map<String, Filter> FILTER_ROOT;
     private static final Map<String, Filter> FILTER_CHILDREN;
     private static final FilterClassLoader OUR_INSTANCE;
-    private static final FileFilter CLASS_FILE_FILTER;
+    private static final FileFilter JAR_FILE_FILTER;
+    private final int filterSetVersion;
 
     static {
         FILTER_CHILDREN = Collections.synchronizedMap(new HashMap<String, Filter>());
         FILTER_ROOT = Collections.synchronizedMap(new HashMap<String, Filter>());
-        CLASS_FILE_FILTER = new FileFilter() {
+        JAR_FILE_FILTER = new FileFilter() {
             public boolean accept(File pathname) {
-                return (pathname.getParent().endsWith("filters") && pathname.getName().endsWith(".class")) || pathname.isDirectory();
+                return pathname.isFile() && pathname.getName().endsWith(".jar");
             }
         };
 
@@ -49,164 +54,184 @@ public final class FilterClassLoader extends ClassLoader {
 
     private FilterClassLoader() {
 
-        Map<String, byte[]> rawClassMap = new HashMap<String, byte[]>();
-
-        CodeSource src = FilterClassLoader.class.getProtectionDomain().getCodeSource();
-        if (src != null) {
-            URL location = src.getLocation();
-            try {
-                ZipInputStream zip = new ZipInputStream(location.openStream());
+        List<Long> checksums = new ArrayList<Long>();
 
-                ZipEntry nextEntry = zip.getNextEntry();
+        for (Map.Entry<String, Filter> entry : loadFilters(findSources(), checksums).entrySet()) {
+            String filename = entry.getKey();
+            Filter value = entry.getValue();
 
-                if (nextEntry != null) { //Executed from a jar
-                    while (nextEntry != null) {
-                        if (!nextEntry.isDirectory()) {
-                            addFiltersToMap(nextEntry.getName(), zip, rawClassMap);
-                        }
+            FilterProperties annotation = value.getClass().getAnnotation(FilterProperties.class);
 
-                        nextEntry = zip.getNextEntry();
-                    }
-                } else { //Not a jar
-                    try {
-                        File dir = new File(location.toURI());
-
-                        List<File> fileByType = findFileByType(dir, CLASS_FILE_FILTER);
-                        if (fileByType != null) {
-                            for (File file : fileByType) {
-                                addFiltersToMap(file.getPath(), new FileInputStream(file), rawClassMap);
-                            }
-                        }
-                    } catch (URISyntaxException e) {
-                        e.printStackTrace();
-                    }
-                }
-            } catch (IOException e) {
-                e.printStackTrace();
+            if (annotation != null && !"".equals(annotation.parent())) {
+                FILTER_CHILDREN.put(filename, value);
+            } else {
+                FILTER_ROOT.put(filename, value);
             }
         }
 
-        if (!rawClassMap.isEmpty()) {
-            for (Map.Entry<String, byte[]> entry : rawClassMap.entrySet()) {
-                Pattern pattern = Pattern.compile("(?<=\\/)\\w*\\.\\w*$"); //Extract the filename
-                Matcher matcher = pattern.matcher(entry.getKey());
-
-                byte[] data = entry.getValue();
-
-                if (matcher.find()) {
-
-                    String filename = matcher.group(0).split("\\.")[0];
-                    try {
-                        Class<?> clazz = defineClass(null, data, 0, data.length);
-                        Filter value = (Filter) clazz.newInstance();
-
-                        FilterProperties annotation = clazz.getAnnotation(FilterProperties.class);
-
-                        if (annotation != null) {
-                            String parent = annotation.parent();
-
-                            if (!"".equals(parent)) {
-                                FILTER_CHILDREN.put(filename, value);
-                            } else {
-                                FILTER_ROOT.put(filename, value);
-                            }
-                        } else {
-                            FILTER_ROOT.put(filename, value);
-                        }
-                    } catch (InstantiationException e) {
-                        e.printStackTrace();
-                    } catch (IllegalAccessException e) {
-                        e.printStackTrace();
-                    }
-                }
-            }
+        filterSetVersion = computeFilterSetVersion(checksums);
 
-            //Check if the parent exist, if not, put the element into the root map
-            for (Filter filterChild : new ArrayList<Filter>(FILTER_CHILDREN.values())) {
-                FilterProperties annotation = filterChild.getClass().getAnnotation(FilterProperties.class);
+        //Check if the parent exist, if not, put the element into the root map
+        for (Filter filterChild : new ArrayList<Filter>(FILTER_CHILDREN.values())) {
+            FilterProperties annotation = filterChild.getClass().getAnnotation(FilterProperties.class);
 
-                String parent = annotation.parent();
+            String parent = annotation.parent();
 
-                if (!FILTER_CHILDREN.containsKey(parent)) { //Check in the current child list
-                    if (!FILTER_ROOT.containsKey(parent)) {
-                        String simpleName = filterChild.getClass().getSimpleName();
-                        FILTER_ROOT.put(simpleName, filterChild);
-                        FILTER_CHILDREN.remove(simpleName);
-                    }
+            if (!FILTER_CHILDREN.containsKey(parent)) { //Check in the current child list
+                if (!FILTER_ROOT.containsKey(parent)) {
+                    String simpleName = filterChild.getClass().getSimpleName();
+                    FILTER_ROOT.put(simpleName, filterChild);
+                    FILTER_CHILDREN.remove(simpleName);
                 }
             }
         }
     }
 
-
     /**
-     * @param pathname - The root path
-     * @param filter   - The file filter
-     * @return A List<File> containing the file(s)
+     * @return A List containing the code source of the library followed by the configured plugin sources
      */
-    private List<File> findFileByType(File pathname, FileFilter filter) {
-        if (pathname.isDirectory()) {
-            List<File> files = new ArrayList<File>();
-            for (File f : pathname.listFiles(filter)) {
-                files.addAll(findFileByType(f, filter));
+    private static List<File> findSources() {
+        Set<File> sources = new LinkedHashSet<File>();
+
+        CodeSource src = FilterClassLoader.class.getProtectionDomain().getCodeSource();
+        if (src != null) {
+            URL location = src.getLocation();
+            try {
+                sources.add(new File(location.toURI()));
+            } catch (URISyntaxException e) {
+                e.printStackTrace();
+            } catch (IllegalArgumentException e) { //Not a file (ex: nested jar)
+                e.printStackTrace();
             }
-            return files;
-        } else {
-            return Collections.singletonList(pathname);
         }
+
+        sources.addAll(pluginSources(System.getProperty(PLUGINS_PROPERTY)));
+
+        return new ArrayList<File>(sources);
     }
 
     /**
-     * @param name        - The name of the current file
-     * @param is          - The InputStream to read from
-     * @param rawClassMap - The map to add the items
+     * @param plugins - The value of the plugins property, the paths separated by the path separator (can be Null)
+     * @return A List containing the plugin sources in the configured order, a listed directory being followed by its jars (sorted by name)
      */
-    private void addFiltersToMap(String name, InputStream is, Map<String, byte[]> rawClassMap) {
+    static List<File> pluginSources(String plugins) {
+        Set<File> sources = new LinkedHashSet<File>();
 
-        if (is == null || rawClassMap == null || name == null) {
-            return;
-        }
+        if (plugins != null) {
+            for (String path : plugins.split(File.pathSeparator)) {
+                if ("".equals(path.trim())) {
+                    continue;
+                }
 
-        name = name.replaceAll(Pattern.quote(File.separator), "/");
+                File source = new File(path.trim());
+                sources.add(source);
 
-        if (name.matches(".*(\\/?)filters\\/\\w*\\.class")) {
-            byte[] bytes = readInputStreamToBytes(is);
+                if (source.isDirectory()) {
+                    File[] jars = source.listFiles(JAR_FILE_FILTER);
 
-            if (bytes != null && bytes.length > 0) {
-                rawClassMap.put(name, bytes);
+                    if (jars != null) {
+                        Arrays.sort(jars);
+                        sources.addAll(Arrays.asList(jars));
+                    }
+                }
             }
         }
+
+        return new ArrayList<File>(sources);
     }
 
-    public static FilterClassLoader getInstance() {
-        return OUR_INSTANCE;
+    /**
+     * Load the plugins concurrently, then instantiate their filters on the calling thread and merge them in the order
+     * of the sources; the filters of the later sources replace the ones with the same name.
+     *
+     * @param sources   - The jars and class directories of the plugins
+     * @param checksums - The List to be filled with the CRC-32 of the filter classes
+     * @return A Map containing the merged filters, mapped by their filename
+     */
+    static Map<String, Filter> loadFilters(List<File> sources, List<Long> checksums) {
+        Map<String, Filter> filters = new LinkedHashMap<String, Filter>();
+
+        for (PluginClassLoader plugin : loadPlugins(sources)) {
+            checksums.addAll(plugin.getChecksums());
+            plugin.instantiateFilters(); //On this thread, the filters can reach the FilterClassLoader
+
+            for (Map.Entry<String, Filter> entry : plugin.getFilters().entrySet()) {
+                filters.remove(entry.getKey()); //Keep the order of the last source
+                filters.put(entry.getKey(), entry.getValue());
+            }
+        }
+
+        return filters;
     }
 
     /**
-     * @param is - The InputStream to be converted into byte[]
-     * @return A byte[] containing the binary data of the InputStream or Null if the file parameter is Null
+     * Read and define the filter classes of each plugin concurrently; they are only instantiated by the caller
+     *
+     * @param sources - The jars and class directories of the plugins
+     * @return A List containing the loaded plugins, in the same order as the sources
      */
-    private static byte[] readInputStreamToBytes(InputStream is) {
-        if (is == null) {
-            return null;
+    private static List<PluginClassLoader> loadPlugins(List<File> sources) {
+        List<PluginClassLoader> plugins = new ArrayList<PluginClassLoader>();
+
+        if (sources.isEmpty()) {
+            return plugins;
         }
 
-        ByteArrayOutputStream value = new ByteArrayOutputStream();
+        final ClassLoader parent = FilterClassLoader.class.getClassLoader();
+        List<Callable<PluginClassLoader>> tasks = new ArrayList<Callable<PluginClassLoader>>();
+
+        for (final File source : sources) {
+            if (!source.exists()) {
+                continue;
+            }
+
+            tasks.add(new Callable<PluginClassLoader>() {
+                public PluginClassLoader call() throws Exception {
+                    PluginClassLoader plugin = new PluginClassLoader(source, parent);
+                    plugin.loadFilters(); //Defined but not initialized
+                    return plugin;
+                }
+            });
+        }
 
-        int nRead;
-        byte[] buffer = new byte[8192];
+        int nbThreads = Math.max(1, Math.min(tasks.size(), Runtime.getRuntime().availableProcessors()));
+        ExecutorService executor = Executors.newFixedThreadPool(nbThreads);
 
         try {
-            while ((nRead = is.read(buffer, 0, buffer.length)) != -1) {
-                value.write(buffer, 0, nRead);
+            for (Future<PluginClassLoader> future : executor.invokeAll(tasks)) {
+                try {
+                    plugins.add(future.get());
+                } catch (ExecutionException e) {
+                    e.getCause().printStackTrace();
+                }
             }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            executor.shutdown();
+        }
+
+        return plugins;
+    }
 
-            value.flush();
-        } catch (IOException e) {
-            e.printStackTrace();
+    /**
+     * @param checksums - The CRC-32 of the filter classes
+     * @return A version that changes when a filter is added, removed or updated
+     */
+    private static int computeFilterSetVersion(List<Long> checksums) {
+        List<Long> sorted = new ArrayList<Long>(checksums);
+        Collections.sort(sorted); //Independent of the order of the classes in the plugins
+
+        int version = sorted.size();
+        for (Long checksum : sorted) {
+            version = 31 * version + checksum.hashCode();
         }
 
-        return value.toByteArray();
+        return version;
+    }
+
+    public static FilterClassLoader getInstance() {
+        return OUR_INSTANCE;
     }
 
     /**
@@ -217,6 +242,13 @@ public final class FilterClassLoader extends ClassLoader {
         return FILTER_CHILDREN.get(name);
     }
 
+    /**
+     * @return The version of the loaded filter set
+     */
+    public int getFilterSetVersion() {
+        return filterSetVersion;
+    }
+
     /**
      * @return A Collection containing the root filters (with no parents), null if there's no root filters
      */
@@ -33,4 +33,19 @@ public @interface FilterProperties {
     String[] childs() default {};
 
     String mimeType();
+
+    /**
+     * @return The maximum time (in milliseconds) a single detection is allowed to take before it counts as a breach, 0 for no limit
+     */
+    long timeBudget() default 0;
+
+    /**
+     * @return The maximum size (in bytes) of the file binary the filter is executed on (larger ones are skipped), 0 for no limit
+     */
+    long byteBudget() default 0;
+
+    /**
+     * @return The content kinds the filter can detect (ex: BINARY for a magic number), an empty array for any content
+     */
+    ContentKind[] contentKinds() default {};
 }
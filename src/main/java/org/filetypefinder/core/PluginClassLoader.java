@@ -0,0 +1,212 @@
+/*
+ *    Copyright 2014 - 2016 Yannick Watier
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package org.filetypefinder.core;
+
+import java.io.*;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.*;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+
+/**
+ * The class loader of a single plugin (a jar or a class directory); only the filters/*.class entries are looked up.
+ * <p>
+ * The classes of a filters package are resolved child-first, so a plugin can replace a filter with the same name
+ * found on the class path; the other classes (Filter, FilterProperties, ...) are delegated to the parent.
+ */
+final class PluginClassLoader extends URLClassLoader {
+    private static final Pattern FILTER_ENTRY = Pattern.compile("(.*/)?filters/\\w*\\.class");
+    private static final Pattern FILTER_CLASS = Pattern.compile("(.*\\.)?filters\\.[^.]+");
+
+    static {
+        registerAsParallelCapable();
+    }
+
+    private final File source;
+    private final Map<String, Class<?>> filterClasses;
+    private final Map<String, Filter> filters;
+    private final List<Long> checksums;
+
+    /**
+     * @param source - The jar or the class directory of the plugin
+     * @param parent - The class loader containing the Filter interface
+     * @throws MalformedURLException If the source cannot be converted into an URL
+     */
+    PluginClassLoader(File source, ClassLoader parent) throws MalformedURLException {
+        super(new URL[]{source.toURI().toURL()}, parent);
+        this.source = source;
+        filterClasses = new LinkedHashMap<String, Class<?>>();
+        filters = new LinkedHashMap<String, Filter>();
+        checksums = new ArrayList<Long>();
+    }
+
+    /**
+     * Find and define the filter classes of the plugin, without initializing them (safe to call from any thread)
+     *
+     * @throws IOException If the jar cannot be read
+     */
+    void loadFilters() throws IOException {
+        if (source.isDirectory()) {
+            loadFilters(source, "");
+        } else {
+            JarFile jarFile = new JarFile(source);
+
+            try {
+                Enumeration<JarEntry> entries = jarFile.entries(); //Read from the central directory only
+
+                while (entries.hasMoreElements()) {
+                    JarEntry entry = entries.nextElement();
+
+                    if (!entry.isDirectory() && FILTER_ENTRY.matcher(entry.getName()).matches()) {
+                        checksums.add(entry.getCrc());
+                        addFilter(entry.getName());
+                    }
+                }
+            } finally {
+                jarFile.close();
+            }
+        }
+    }
+
+    /**
+     * @param directory - The current directory
+     * @param prefix    - The path of the directory, relative to the source
+     * @throws IOException If a class file cannot be read
+     */
+    private void loadFilters(File directory, String prefix) throws IOException {
+        File[] files = directory.listFiles();
+
+        if (files == null) {
+            return;
+        }
+
+        for (File file : files) {
+            String name = prefix + file.getName();
+
+            if (file.isDirectory()) {
+                loadFilters(file, name + "/");
+            } else if (FILTER_ENTRY.matcher(name).matches()) {
+                checksums.add(checksum(file));
+                addFilter(name);
+            }
+        }
+    }
+
+    /**
+     * Instantiate the filter classes found by {@link #loadFilters()}; called from the thread loading the filters, so
+     * a filter constructor (or static initializer) can use the FilterClassLoader without deadlocking
+     */
+    void instantiateFilters() {
+        for (Map.Entry<String, Class<?>> entry : filterClasses.entrySet()) {
+            try {
+                filters.put(entry.getKey(), (Filter) entry.getValue().newInstance());
+            } catch (InstantiationException e) {
+                e.printStackTrace();
+            } catch (IllegalAccessException e) {
+                e.printStackTrace();
+            } catch (LinkageError e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    @Override
+    protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+        if (!FILTER_CLASS.matcher(name).matches()) {
+            return super.loadClass(name, resolve);
+        }
+
+        synchronized (getClassLoadingLock(name)) {
+            Class<?> clazz = findLoadedClass(name);
+
+            if (clazz == null) {
+                try {
+                    clazz = findClass(name); //Child first
+                } catch (ClassNotFoundException e) {
+                    return super.loadClass(name, resolve);
+                }
+            }
+
+            if (resolve) {
+                resolveClass(clazz);
+            }
+
+            return clazz;
+        }
+    }
+
+    /**
+     * @param entryName - The name of the class entry (ex: filters/Zip.class)
+     */
+    private void addFilter(String entryName) {
+        String className = entryName.substring(0, entryName.length() - ".class".length()).replace('/', '.');
+        String filename = className.substring(className.lastIndexOf('.') + 1);
+
+        try {
+            Class<?> clazz = Class.forName(className, false, this);
+
+            if (Filter.class.isAssignableFrom(clazz)) {
+                filterClasses.put(filename, clazz);
+            }
+        } catch (ClassNotFoundException e) {
+            e.printStackTrace();
+        } catch (LinkageError e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * @param file - The file to be read
+     * @return The CRC-32 of the file content
+     * @throws IOException If the file cannot be read
+     */
+    private static long checksum(File file) throws IOException {
+        CRC32 crc32 = new CRC32();
+        InputStream is = new FileInputStream(file);
+
+        try {
+            byte[] buffer = new byte[8192];
+            int nRead;
+
+            while ((nRead = is.read(buffer, 0, buffer.length)) != -1) {
+                crc32.update(buffer, 0, nRead);
+            }
+        } finally {
+            is.close();
+        }
+
+        return crc32.getValue();
+    }
+
+    /**
+     * @return A Map containing the filters of the plugin (once instantiated), mapped by their filename
+     */
+    Map<String, Filter> getFilters() {
+        return filters;
+    }
+
+    /**
+     * @return A List containing the CRC-32 of the filter classes
+     */
+    List<Long> getChecksums() {
+        return checksums;
+    }
+}
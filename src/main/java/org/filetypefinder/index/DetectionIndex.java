@@ -0,0 +1,584 @@
+/*
+ *    Copyright 2014 - 2016 Yannick Watier
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package org.filetypefinder.index;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+
+/**
+ * An on-disk index of the already analysed files, mapped in memory.
+ * <p>
+ * The file is an open addressing hash table of fixed size slots (path hash, size, last modified, filter set version,
+ * media types id), followed by the table of the media types. An entry is only valid if the size, the last modified
+ * time and the filter set version still match, otherwise the file has to be analysed again.
+ */
+public final class DetectionIndex implements Closeable {
+    private static final int MAGIC = 0x46544649; //FTFI
+    private static final int FORMAT_VERSION = 1;
+    private static final int HEADER_SIZE = 64;
+    private static final int SLOT_SIZE = 32;
+    private static final int SEGMENT_SHIFT = 30;
+    private static final int SEGMENT_MASK = (1 << SEGMENT_SHIFT) - 1;
+    private static final int MIN_CAPACITY = 1024;
+    private static final int MAX_CAPACITY = 1 << 30;
+    private static final float LOAD_FACTOR = 0.7f;
+
+    private static final int SIZE_OFFSET = 8;
+    private static final int LAST_MODIFIED_OFFSET = 16;
+    private static final int FILTER_VERSION_OFFSET = 24;
+    private static final int MEDIA_TYPES_OFFSET = 28;
+
+    private final File file;
+    private final List<String> mediaTypes;
+    private final List<Set<String>> mediaTypeSets;
+    private final Map<String, Integer> mediaTypeIds;
+
+    private BitSet seen; //The slots found by lookup or put since the index was opened or pruned
+    private RandomAccessFile randomAccessFile;
+    private FileChannel channel;
+    private MappedByteBuffer header;
+    private MappedByteBuffer[] segments;
+    private int capacity;
+    private int size;
+    private boolean mediaTypesDirty;
+
+    /**
+     * @param file        - The index file, created if it doesn't exist
+     * @param newCapacity - The number of slots (a power of two) of a new index, ignored if the file is a valid index
+     * @throws IOException If the file cannot be read or mapped
+     */
+    private DetectionIndex(File file, int newCapacity) throws IOException {
+        this.file = file;
+        mediaTypes = new ArrayList<String>();
+        mediaTypeSets = new ArrayList<Set<String>>();
+        mediaTypeIds = new HashMap<String, Integer>();
+        seen = new BitSet();
+
+        map(newCapacity);
+    }
+
+    /**
+     * @param file - The index file, created if it doesn't exist
+     * @return The DetectionIndex mapped to the file
+     * @throws IOException If the file cannot be read or mapped
+     */
+    public static DetectionIndex open(File file) throws IOException {
+        return open(file, 0);
+    }
+
+    /**
+     * @param file            - The index file, created if it doesn't exist
+     * @param expectedEntries - The number of files expected in the index, used to size a new index
+     * @return The DetectionIndex mapped to the file
+     * @throws IOException If the file cannot be read or mapped
+     */
+    public static DetectionIndex open(File file, int expectedEntries) throws IOException {
+        if (file == null) {
+            throw new IllegalArgumentException("The index file cannot be null");
+        }
+
+        return new DetectionIndex(file, capacityFor(expectedEntries));
+    }
+
+    /**
+     * @param path          - The path of the file
+     * @param size          - The current size of the file
+     * @param lastModified  - The current last modified time of the file
+     * @param filterVersion - The version of the loaded filter set
+     * @return The media types detected in the file or Null if the file is not indexed or changed since
+     */
+    public synchronized Set<String> lookup(String path, long size, long lastModified, int filterVersion) {
+        if (path == null) {
+            return null;
+        }
+
+        int slot = findSlot(hash(path));
+
+        if (slot < 0) {
+            return null;
+        }
+
+        ByteBuffer buffer = segments[segment(slot)];
+        int position = position(slot);
+
+        if (buffer.getLong(position) == 0 ||
+                buffer.getLong(position + SIZE_OFFSET) != size ||
+                buffer.getLong(position + LAST_MODIFIED_OFFSET) != lastModified ||
+                buffer.getInt(position + FILTER_VERSION_OFFSET) != filterVersion) {
+            return null;
+        }
+
+        int mediaTypesId = buffer.getInt(position + MEDIA_TYPES_OFFSET);
+
+        if (mediaTypesId < 0 || mediaTypesId >= mediaTypeSets.size()) {
+            return null;
+        }
+
+        seen.set(slot);
+
+        return mediaTypeSets.get(mediaTypesId);
+    }
+
+    /**
+     * @param path          - The path of the file
+     * @param size          - The size of the analysed file
+     * @param lastModified  - The last modified time of the analysed file
+     * @param filterVersion - The version of the filter set used to analyse the file
+     * @param detected      - The media types detected in the file
+     * @throws IOException If the index needs to grow and cannot be remapped
+     */
+    public synchronized void put(String path, long size, long lastModified, int filterVersion, Set<String> detected) throws IOException {
+        if (path == null) {
+            return;
+        }
+
+        long pathHash = hash(path);
+        int slot = findSlot(pathHash);
+
+        if (slot < 0 || segments[segment(slot)].getLong(position(slot)) == 0) {
+            if (slot < 0 || this.size + 1 > capacity * LOAD_FACTOR) {
+                grow();
+                slot = findSlot(pathHash);
+            }
+
+            this.size++;
+            header.putInt(12, this.size); //Kept up to date, so an index opened before the close sees the new entries
+        }
+
+        writeSlot(slot, pathHash, size, lastModified, filterVersion, mediaTypesId(detected));
+        seen.set(slot);
+    }
+
+    /**
+     * @param path - The path of the file
+     * @return True if the file was in the index, False if not
+     */
+    public synchronized boolean remove(String path) {
+        if (path == null) {
+            return false;
+        }
+
+        int slot = findSlot(hash(path));
+
+        if (slot < 0 || segments[segment(slot)].getLong(position(slot)) == 0) {
+            return false;
+        }
+
+        removeSlot(slot);
+
+        return true;
+    }
+
+    /**
+     * Remove the entries that were neither found by {@link #lookup} nor {@link #put} since the index was opened (or
+     * last pruned); called after a scan of every indexed file, it removes the entries of the deleted files.
+     *
+     * @return The number of removed entries
+     */
+    public synchronized int prune() {
+        long[] stale = new long[Math.max(size - seen.cardinality(), 0)];
+        int count = 0;
+
+        for (int slot = 0; slot < capacity && count < stale.length; slot++) {
+            long pathHash = segments[segment(slot)].getLong(position(slot));
+
+            if (pathHash != 0 && !seen.get(slot)) {
+                stale[count++] = pathHash;
+            }
+        }
+
+        //Removed by hash, since a removal moves the following entries of the cluster
+        for (int i = 0; i < count; i++) {
+            int slot = findSlot(stale[i]);
+
+            if (slot >= 0 && segments[segment(slot)].getLong(position(slot)) == stale[i]) {
+                removeSlot(slot);
+            }
+        }
+
+        seen.clear();
+
+        return count;
+    }
+
+    /**
+     * @return The number of files in the index
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Write the header and the media types table, then force the content to the storage device
+     *
+     * @throws IOException If the file cannot be written
+     */
+    public synchronized void flush() throws IOException {
+        header.putInt(12, size);
+
+        if (mediaTypesDirty) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+
+            out.writeInt(mediaTypes.size());
+            for (String mediaType : mediaTypes) {
+                out.writeUTF(mediaType);
+            }
+            out.flush();
+
+            long tableOffset = tableOffset(capacity);
+            channel.write(ByteBuffer.wrap(bytes.toByteArray()), tableOffset);
+            channel.truncate(tableOffset + bytes.size());
+            mediaTypesDirty = false;
+        }
+
+        header.force();
+        for (MappedByteBuffer segment : segments) {
+            segment.force();
+        }
+    }
+
+    public synchronized void close() throws IOException {
+        if (channel == null) {
+            return;
+        }
+
+        try {
+            flush();
+        } finally {
+            unmap();
+        }
+    }
+
+    /**
+     * @param newCapacity - The number of slots (a power of two) of a new index, ignored if the file is a valid index
+     * @throws IOException If the file cannot be read or mapped
+     */
+    private void map(int newCapacity) throws IOException {
+        randomAccessFile = new RandomAccessFile(file, "rw");
+        channel = randomAccessFile.getChannel();
+
+        if (channel.size() > 0 && readMagic() != MAGIC) {
+            unmap();
+            throw new IOException("The file " + file + " is not a detection index");
+        }
+
+        boolean valid = false;
+
+        if (channel.size() >= HEADER_SIZE) {
+            header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+            capacity = header.getInt(8);
+            valid = header.getInt(0) == MAGIC && header.getInt(4) == FORMAT_VERSION &&
+                    Integer.bitCount(capacity) == 1 && capacity <= MAX_CAPACITY &&
+                    channel.size() >= tableOffset(capacity) + 4;
+        }
+
+        if (valid) {
+            size = header.getInt(12);
+            mapSegments();
+            readMediaTypes();
+        } else { //New index or index of another format, it's only a cache so it's rebuilt
+            capacity = newCapacity;
+            size = 0;
+
+            channel.truncate(0);
+            header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+            header.putInt(0, MAGIC);
+            header.putInt(4, FORMAT_VERSION);
+            header.putInt(8, capacity);
+            header.putInt(12, size);
+            mapSegments();
+
+            mediaTypes.clear();
+            mediaTypeSets.clear();
+            mediaTypeIds.clear();
+            addMediaTypes(""); //The id 0 is reserved to the files without any media type
+            flush();
+        }
+    }
+
+    /**
+     * @return The first 4 bytes of the file, read without mapping it (a mapping would extend a smaller file)
+     * @throws IOException If the file cannot be read
+     */
+    private int readMagic() throws IOException {
+        ByteBuffer magic = ByteBuffer.allocate(4);
+
+        while (magic.hasRemaining() && channel.read(magic, magic.position()) > 0) {
+            //Read until the buffer is full or the end of the file
+        }
+
+        return magic.hasRemaining() ? 0 : magic.getInt(0);
+    }
+
+    private void mapSegments() throws IOException {
+        long length = (long) capacity * SLOT_SIZE;
+        int count = (int) ((length + SEGMENT_MASK) >>> SEGMENT_SHIFT);
+
+        segments = new MappedByteBuffer[count];
+        for (int i = 0; i < count; i++) {
+            long start = (long) i << SEGMENT_SHIFT;
+            segments[i] = channel.map(FileChannel.MapMode.READ_WRITE, HEADER_SIZE + start, Math.min(length - start, SEGMENT_MASK + 1L));
+        }
+    }
+
+    private void readMediaTypes() throws IOException {
+        long tableOffset = tableOffset(capacity);
+        ByteBuffer table = ByteBuffer.allocate((int) (channel.size() - tableOffset));
+        channel.read(table, tableOffset);
+
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(table.array()));
+        int count = in.readInt();
+
+        mediaTypes.clear();
+        mediaTypeSets.clear();
+        mediaTypeIds.clear();
+        for (int i = 0; i < count; i++) {
+            addMediaTypes(in.readUTF());
+        }
+
+        mediaTypesDirty = false;
+    }
+
+    private void unmap() throws IOException {
+        header = null;
+        segments = null;
+
+        try {
+            channel.close();
+        } finally {
+            randomAccessFile.close();
+            channel = null;
+            randomAccessFile = null;
+        }
+    }
+
+    /**
+     * Rehash the entries into a new file twice as large, then replace the current file
+     *
+     * @throws IOException If the new file cannot be written
+     */
+    private void grow() throws IOException {
+        if (capacity >= MAX_CAPACITY) {
+            throw new IOException("The index " + file + " is full");
+        }
+
+        File tmp = new File(file.getPath() + ".tmp");
+        if (tmp.exists() && !tmp.delete()) {
+            throw new IOException("Cannot delete " + tmp);
+        }
+
+        DetectionIndex grown = new DetectionIndex(tmp, capacity * 2);
+        BitSet grownSeen = new BitSet();
+
+        try {
+            for (int i = 1; i < mediaTypes.size(); i++) { //The id 0 is already in the new index
+                grown.addMediaTypes(mediaTypes.get(i));
+            }
+
+            for (int slot = 0; slot < capacity; slot++) {
+                ByteBuffer buffer = segments[segment(slot)];
+                int position = position(slot);
+                long pathHash = buffer.getLong(position);
+
+                if (pathHash != 0) {
+                    int grownSlot = grown.findSlot(pathHash);
+
+                    if (seen.get(slot)) {
+                        grownSeen.set(grownSlot);
+                    }
+
+                    grown.writeSlot(grownSlot, pathHash,
+                            buffer.getLong(position + SIZE_OFFSET),
+                            buffer.getLong(position + LAST_MODIFIED_OFFSET),
+                            buffer.getInt(position + FILTER_VERSION_OFFSET),
+                            buffer.getInt(position + MEDIA_TYPES_OFFSET));
+                    grown.size++;
+                }
+            }
+        } finally {
+            grown.close();
+        }
+
+        unmap();
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        map(capacity * 2);
+        seen = grownSeen;
+    }
+
+    /**
+     * @param pathHash - The hash of the path
+     * @return The slot containing the hash, the empty slot where it should be inserted or -1 if every slot is taken
+     */
+    private int findSlot(long pathHash) {
+        int mask = capacity - 1;
+        int slot = home(pathHash);
+
+        for (int probes = 0; probes < capacity; probes++) {
+            long current = segments[segment(slot)].getLong(position(slot));
+
+            if (current == 0 || current == pathHash) {
+                return slot;
+            }
+
+            slot = (slot + 1) & mask;
+        }
+
+        return -1; //Only possible with a size lower than the number of entries (an index that was not closed)
+    }
+
+    /**
+     * Empty the slot, then move back the following entries of the cluster (no tombstone, so findSlot still stops at
+     * the first empty slot)
+     *
+     * @param slot - The slot of the entry to be removed
+     */
+    private void removeSlot(int slot) {
+        int mask = capacity - 1;
+        int hole = slot;
+        int next = (hole + 1) & mask;
+
+        for (int probes = 1; probes < capacity; probes++, next = (next + 1) & mask) {
+            ByteBuffer buffer = segments[segment(next)];
+            int position = position(next);
+            long pathHash = buffer.getLong(position);
+
+            if (pathHash == 0) {
+                break;
+            }
+
+            //The entry can fill the hole only if its home slot is not between the hole and itself
+            if (((next - home(pathHash)) & mask) >= ((next - hole) & mask)) {
+                writeSlot(hole, pathHash,
+                        buffer.getLong(position + SIZE_OFFSET),
+                        buffer.getLong(position + LAST_MODIFIED_OFFSET),
+                        buffer.getInt(position + FILTER_VERSION_OFFSET),
+                        buffer.getInt(position + MEDIA_TYPES_OFFSET));
+                seen.set(hole, seen.get(next));
+                hole = next;
+            }
+        }
+
+        writeSlot(hole, 0, 0, 0, 0, 0);
+        seen.clear(hole);
+
+        size--;
+        header.putInt(12, size);
+    }
+
+    private void writeSlot(int slot, long pathHash, long size, long lastModified, int filterVersion, int mediaTypesId) {
+        ByteBuffer buffer = segments[segment(slot)];
+        int position = position(slot);
+
+        buffer.putLong(position + SIZE_OFFSET, size);
+        buffer.putLong(position + LAST_MODIFIED_OFFSET, lastModified);
+        buffer.putInt(position + FILTER_VERSION_OFFSET, filterVersion);
+        buffer.putInt(position + MEDIA_TYPES_OFFSET, mediaTypesId);
+        buffer.putLong(position, pathHash);
+    }
+
+    /**
+     * @param detected - The detected media types
+     * @return The id of the media types in the table, the media types are added if they are not already in it
+     */
+    private int mediaTypesId(Set<String> detected) {
+        StringBuilder key = new StringBuilder();
+
+        if (detected != null) {
+            for (String mediaType : new TreeSet<String>(detected)) {
+                if (key.length() > 0) {
+                    key.append(',');
+                }
+                key.append(mediaType);
+            }
+        }
+
+        Integer id = mediaTypeIds.get(key.toString());
+        if (id != null) {
+            return id;
+        }
+
+        mediaTypesDirty = true;
+        return addMediaTypes(key.toString());
+    }
+
+    private int addMediaTypes(String key) {
+        Set<String> set = new HashSet<String>();
+        if (key.length() > 0) {
+            set.addAll(Arrays.asList(key.split(",")));
+        }
+
+        int id = mediaTypes.size();
+        mediaTypes.add(key);
+        mediaTypeSets.add(Collections.unmodifiableSet(set));
+        mediaTypeIds.put(key, id);
+        mediaTypesDirty = true;
+
+        return id;
+    }
+
+    /**
+     * @param path - The path of the file
+     * @return A 64 bits FNV-1a hash of the path, never 0 (reserved to the empty slots)
+     */
+    private static long hash(String path) {
+        long hash = 0xcbf29ce484222325L;
+
+        for (int i = 0; i < path.length(); i++) {
+            hash ^= path.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+
+        return (hash != 0) ? hash : 1;
+    }
+
+    private static int capacityFor(int expectedEntries) {
+        long needed = (long) Math.ceil(Math.max(expectedEntries, 0) / LOAD_FACTOR);
+        int value = MIN_CAPACITY;
+
+        while (value < needed && value < MAX_CAPACITY) {
+            value <<= 1;
+        }
+
+        return value;
+    }
+
+    /**
+     * @param pathHash - The hash of the path
+     * @return The first slot probed for the hash
+     */
+    private int home(long pathHash) {
+        return (int) (pathHash ^ (pathHash >>> 32)) & (capacity - 1);
+    }
+
+    private static long tableOffset(int capacity) {
+        return HEADER_SIZE + (long) capacity * SLOT_SIZE;
+    }
+
+    private static int segment(int slot) {
+        return (int) (((long) slot * SLOT_SIZE) >>> SEGMENT_SHIFT);
+    }
+
+    private static int position(int slot) {
+        return (int) (((long) slot * SLOT_SIZE) & SEGMENT_MASK);
+    }
+}
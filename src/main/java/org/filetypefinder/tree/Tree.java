@@ -16,6 +16,8 @@
 
 package org.filetypefinder.tree;
 
+import org.filetypefinder.core.ContentKind;
+
 import java.util.ArrayList;
 import java.util.List;
 
@@ -27,6 +29,8 @@ public class Tree {
 
     private List<TreeElement> leafs;
 
+    private ContentKind[] contentKinds;
+
     public Tree(TreeElement root) {
         this.root = root;
         leafs = new ArrayList<TreeElement>();
@@ -45,6 +49,20 @@ public class Tree {
         }
     }
 
+    /**
+     * @param contentKinds - The union of the content kinds accepted by the elements of the tree, empty for any content
+     */
+    public void setContentKinds(ContentKind[] contentKinds) {
+        this.contentKinds = contentKinds;
+    }
+
+    /**
+     * @return The union of the content kinds accepted by the elements of the tree, null or empty for any content
+     */
+    public ContentKind[] getContentKinds() {
+        return contentKinds;
+    }
+
     /**
      * @return A list containing the leafs (with no children) or an empty list if there's no leafs
      */
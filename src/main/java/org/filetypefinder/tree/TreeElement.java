@@ -16,11 +16,13 @@
 
 package org.filetypefinder.tree;
 
+import org.filetypefinder.core.ContentKind;
 import org.filetypefinder.core.Filter;
 import org.filetypefinder.core.FilterProperties;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 
 /**
@@ -33,6 +35,7 @@ public class TreeElement {
     private TreeElement parent;
     private Filter current;
     private String mimeType;
+    private ContentKind[] contentKinds;
 
     public TreeElement(Filter current) {
         child = new ArrayList<TreeElement>();
@@ -44,6 +47,7 @@ public class TreeElement {
                 strParent = annotation.parent();
                 strChild = annotation.childs();
                 mimeType = annotation.mimeType();
+                contentKinds = annotation.contentKinds();
             }
         }
     }
@@ -71,6 +75,13 @@ public class TreeElement {
         return (strChild != null) ? strChild.clone() : null;
     }
 
+    /**
+     * @return - A List containing the children of the TreeElement or an empty list if there's no children
+     */
+    public List<TreeElement> getChildren() {
+        return Collections.unmodifiableList(child);
+    }
+
     /**
      * @return - The parent of the TreeElement
      */
@@ -91,4 +102,11 @@ public class TreeElement {
     public String getMimeType() {
         return mimeType;
     }
+
+    /**
+     * @return - The content kinds accepted by the filter of the TreeElement, null or empty for any content
+     */
+    public ContentKind[] getContentKinds() {
+        return contentKinds;
+    }
 }
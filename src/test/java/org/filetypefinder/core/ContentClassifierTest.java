@@ -0,0 +1,90 @@
+/*
+ *    Copyright 2014 - 2016 Yannick Watier
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package org.filetypefinder.core;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+public class ContentClassifierTest {
+    private static final String ACCENTED = "D\u00e9tection \u00e0 l'\u00e9t\u00e9";
+    private static final String TEXT = "FileTypeFinder is a java library to find the media type of a file.\r\n\t";
+
+    @Test
+    public void classify() {
+        Assert.assertEquals(ContentKind.ASCII, ContentClassifier.classify(TEXT.getBytes(Charset.forName("US-ASCII"))));
+        Assert.assertEquals(ContentKind.UTF8, ContentClassifier.classify(ACCENTED.getBytes(Charset.forName("UTF-8"))));
+        Assert.assertEquals(ContentKind.UTF16, ContentClassifier.classify(TEXT.getBytes(Charset.forName("UTF-16LE"))));
+        Assert.assertEquals(ContentKind.UTF16, ContentClassifier.classify(TEXT.getBytes(Charset.forName("UTF-16BE"))));
+        Assert.assertEquals(ContentKind.UTF16, ContentClassifier.classify(TEXT.getBytes(Charset.forName("UTF-16"))));
+        Assert.assertEquals(ContentKind.AMBIGUOUS, ContentClassifier.classify(ACCENTED.getBytes(Charset.forName("ISO-8859-1"))));
+        Assert.assertEquals(ContentKind.AMBIGUOUS, ContentClassifier.classify(new byte[0]));
+        Assert.assertEquals(ContentKind.AMBIGUOUS, ContentClassifier.classify(null));
+
+        byte[] zip = new byte[22];
+        zip[0] = 0x50;
+        zip[1] = 0x4B;
+        zip[2] = 0x05;
+        zip[3] = 0x06;
+        Assert.assertEquals(ContentKind.BINARY, ContentClassifier.classify(zip));
+    }
+
+    @Test
+    public void arSymbolTable() {
+        //An ar archive (ex: libc.a) starts with a symbol table of big endian offsets, their zeros are all even
+        byte[] bytes = new byte[ContentClassifier.SAMPLE_SIZE];
+        byte[] header = "!<arch>\n/               0           0     0     0       8192      `\n".getBytes(Charset.forName("US-ASCII"));
+        System.arraycopy(header, 0, bytes, 0, header.length);
+
+        int position = header.length;
+        bytes[position + 2] = 0x07; //The number of symbols
+        bytes[position + 3] = (byte) 0xD0;
+
+        for (position += 4; position + 4 <= bytes.length; position += 4) {
+            bytes[position] = 0x00;
+            bytes[position + 1] = 0x01;
+            bytes[position + 2] = (byte) (0x80 | position);
+            bytes[position + 3] = (byte) (0x81 + position % 64);
+        }
+
+        Assert.assertNotEquals(ContentKind.UTF16, ContentClassifier.classify(bytes));
+        Assert.assertTrue(ContentClassifier.accepts(new ContentKind[]{ContentKind.BINARY}, ContentClassifier.classify(bytes)));
+    }
+
+    @Test
+    public void truncatedSample() {
+        byte[] bytes = new byte[ContentClassifier.SAMPLE_SIZE + 2];
+        Arrays.fill(bytes, (byte) 'a');
+        bytes[ContentClassifier.SAMPLE_SIZE - 1] = (byte) 0xC3; //U+00E9 cut by the end of the sample
+        bytes[ContentClassifier.SAMPLE_SIZE] = (byte) 0xA9;
+
+        Assert.assertEquals(ContentKind.UTF8, ContentClassifier.classify(bytes));
+    }
+
+    @Test
+    public void accepts() {
+        ContentKind[] text = {ContentKind.UTF8, ContentKind.UTF16};
+
+        Assert.assertTrue(ContentClassifier.accepts(new ContentKind[0], ContentKind.BINARY));
+        Assert.assertTrue(ContentClassifier.accepts(text, ContentKind.ASCII));
+        Assert.assertTrue(ContentClassifier.accepts(text, ContentKind.AMBIGUOUS));
+        Assert.assertFalse(ContentClassifier.accepts(text, ContentKind.BINARY));
+        Assert.assertFalse(ContentClassifier.accepts(new ContentKind[]{ContentKind.BINARY}, ContentKind.UTF16));
+    }
+}
@@ -16,14 +16,27 @@
 
 package org.filetypefinder.core;
 
+import org.filetypefinder.index.DetectionIndex;
 import org.junit.Assert;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
 
 /**
  * Created by Yannick on 3/13/2016.
  */
 public class DetectionServiceTest {
 
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
 
     byte dummyZip[] = {
             (byte) 0x50, (byte) 0x4B, (byte) 0x05, (byte) 0x06, (byte) 0x00, (byte) 0x00,
@@ -210,4 +223,204 @@ public class DetectionServiceTest {
         Assert.assertTrue(detectionService.detect(dummyJar, "application/zip"));
         Assert.assertNull(detectionService.detect(null, null));
     }
-}
\ No newline at end of file
+
+    @Test
+    public void batchTest() {
+        DetectionService detectionService = DetectionService.getInstance();
+        byte[] text = "FileTypeFinder".getBytes();
+        byte[] webInf = "index.html WEB-INF/web.xml".getBytes();
+
+        BatchDetectionResult result = detectionService.detectBatch(new byte[][]{dummyZip, dummyJar, dummyWar, text, webInf});
+        Assert.assertEquals(5, result.size());
+        Assert.assertEquals(ContentKind.BINARY, result.getContentKind(0));
+        Assert.assertEquals(ContentKind.BINARY, result.getContentKind(1));
+        Assert.assertEquals(ContentKind.BINARY, result.getContentKind(2));
+        Assert.assertEquals(ContentKind.ASCII, result.getContentKind(3));
+        Assert.assertEquals(ContentKind.ASCII, result.getContentKind(4));
+
+        //One column per media type, the children (Jar and War) only see the inputs detected by Zip
+        Assert.assertEquals(bits(0, 1, 2), result.getInputs("application/zip"));
+        Assert.assertEquals(bits(1), result.getInputs("application/x-java-jar"));
+        Assert.assertEquals(bits(2), result.getInputs("application/x-java-war"));
+
+        Assert.assertTrue(result.contains(1, "application/zip"));
+        Assert.assertTrue(result.contains(1, "application/x-java-jar"));
+        Assert.assertFalse(result.contains(1, "application/x-java-war"));
+        Assert.assertTrue(result.contains(2, "application/x-java-war"));
+        Assert.assertFalse(result.contains(2, "application/x-java-jar"));
+        Assert.assertTrue(result.getMediaTypes(3).isEmpty());
+
+        //Pruned in the batch since Zip does not accept text, while analyse executes War on its own
+        Assert.assertFalse(result.contains(4, "application/x-java-war"));
+        Assert.assertTrue(result.getMediaTypes(4).isEmpty());
+        Assert.assertTrue(detectionService.analyse(webInf).contains("application/x-java-war"));
+
+        //Over the byte budget of Slow, only this input is incomplete
+        byte[] large = Arrays.copyOf(dummyZip, 128);
+        result = detectionService.detectBatch(new byte[][]{dummyZip, large});
+        Assert.assertTrue(result.contains(1, "application/zip"));
+        Assert.assertEquals(Collections.singleton("Slow"), result.getSkippedFilters());
+        Assert.assertEquals(Collections.singleton("Slow"), result.getSkippedFilters(1));
+        Assert.assertTrue(result.getSkippedFilters(0).isEmpty());
+        Assert.assertTrue(result.isPartial(1));
+        Assert.assertTrue(result.isPartial());
+
+        result = detectionService.detectBatch(new byte[][]{null, new byte[0]});
+        Assert.assertEquals(2, result.size());
+        Assert.assertEquals(ContentKind.AMBIGUOUS, result.getContentKind(0));
+        Assert.assertTrue(result.getMediaTypes(0).isEmpty());
+        Assert.assertTrue(result.getMediaTypes(1).isEmpty());
+
+        ByteBuffer slice = ByteBuffer.wrap(dummyJar, 0, 10).slice();
+        result = detectionService.detectBatch(Arrays.asList(ByteBuffer.wrap(dummyWar), slice));
+        Assert.assertEquals(2, result.size());
+        Assert.assertTrue(result.contains(0, "application/x-java-war"));
+        Assert.assertTrue(result.contains(1, "application/zip"));
+        Assert.assertFalse(result.contains(1, "application/x-java-jar")); //The manifest is not in the slice
+        Assert.assertEquals(0, slice.position());
+
+        Assert.assertNull(detectionService.detectBatch((byte[][]) null));
+    }
+
+    private static BitSet bits(int... indexes) {
+        BitSet bits = new BitSet();
+
+        for (int index : indexes) {
+            bits.set(index);
+        }
+
+        return bits;
+    }
+
+    @Test
+    public void circuitBreakerTest() {
+        DetectionService detectionService = DetectionService.getInstance();
+        byte[] slow = "SLOW".getBytes();
+        byte[] large = Arrays.copyOf(slow, 128);
+
+        //Over the byte budget: not executed, reported for this input only and never trips the filter
+        for (int i = 0; i < 3; i++) {
+            DetectionResult result = detectionService.analyse(large);
+            Assert.assertTrue(result.getSkippedFilters().contains("Slow"));
+            Assert.assertFalse(result.contains("application/x-slow"));
+        }
+        Assert.assertFalse(detectionService.getTrippedFilters().contains("Slow"));
+
+        //Slow has 3 leaves, a single slow input is still a single breach
+        Assert.assertTrue(detectionService.analyse(slow).contains("application/x-slow"));
+        Assert.assertFalse(detectionService.getTrippedFilters().contains("Slow"));
+        detectionService.analyse(slow);
+        Assert.assertFalse(detectionService.getTrippedFilters().contains("Slow"));
+        detectionService.analyse(slow);
+        Assert.assertTrue(detectionService.getTrippedFilters().contains("Slow"));
+
+        DetectionResult result = detectionService.analyse(slow);
+        Assert.assertTrue(result.getTrippedFilters().contains("Slow"));
+        Assert.assertFalse(result.contains("application/x-slow"));
+    }
+
+    @Test
+    public void failingFilterTest() {
+        DetectionService detectionService = DetectionService.getInstance();
+        byte[] failing = "FAIL".getBytes();
+
+        //Reported like a tripped filter, for this input only
+        DetectionResult result = detectionService.analyse(failing);
+        Assert.assertTrue(result.getTrippedFilters().contains("Failing"));
+        Assert.assertTrue(result.isPartial());
+        Assert.assertFalse(result.contains("application/x-failing"));
+
+        BatchDetectionResult batch = detectionService.detectBatch(new byte[][]{failing, dummyZip});
+        Assert.assertTrue(batch.getTrippedFilters().contains("Failing"));
+        Assert.assertTrue(batch.getTrippedFilters(0).contains("Failing"));
+        Assert.assertFalse(batch.getTrippedFilters(1).contains("Failing"));
+        Assert.assertTrue(batch.contains(1, "application/zip"));
+
+        //A success resets the consecutive breaches, Failing must not stay tripped for the other tests
+        Assert.assertFalse(detectionService.analyse(dummyZip).getTrippedFilters().contains("Failing"));
+        Assert.assertFalse(detectionService.getTrippedFilters().contains("Failing"));
+    }
+
+    @Test
+    public void contentKindTest() {
+        DetectionService detectionService = DetectionService.getInstance();
+
+        //The root (Zip) only accepts binaries, but its child War accepts any content
+        DetectionResult result = detectionService.analyse("index.html WEB-INF/web.xml".getBytes());
+        Assert.assertEquals(ContentKind.ASCII, result.getContentKind());
+        Assert.assertTrue(result.contains("application/x-java-war"));
+        Assert.assertFalse(result.contains("application/zip"));
+
+        result = detectionService.analyse(dummyJar);
+        Assert.assertEquals(ContentKind.BINARY, result.getContentKind());
+        Assert.assertTrue(result.contains("application/x-java-jar"));
+        Assert.assertFalse(result.contains("application/x-java-war"));
+    }
+
+    @Test
+    public void scanTest() throws Exception {
+        DetectionService detectionService = DetectionService.getInstance();
+        File data = folder.newFolder("data");
+        File text = new File(data, "c.txt");
+
+        //Over the byte budget of Slow, so a tripped Slow (see circuitBreakerTest) cannot prevent the indexing
+        Files.write(new File(data, "a.jar").toPath(), dummyJar);
+        Files.write(new File(data, "b.war").toPath(), dummyWar);
+        Files.write(text.toPath(), Arrays.copyOf("FileTypeFinder".getBytes(), 100));
+        Files.createSymbolicLink(new File(data, "loop").toPath(), data.toPath()); //Cycle
+
+        DetectionIndex index = DetectionIndex.open(new File(folder.getRoot(), "index"));
+        Assert.assertEquals(3, detectionService.scan(data, index));
+        Assert.assertEquals(3, index.size());
+        Assert.assertEquals(0, detectionService.scan(data, index)); //Unchanged
+
+        //Modified
+        Files.write(text.toPath(), Arrays.copyOf("FileTypeFinder!".getBytes(), 100));
+        Assert.assertTrue(text.setLastModified(text.lastModified() + 2000));
+        Assert.assertEquals(1, detectionService.scan(data, index));
+
+        //New
+        File jar = new File(data, "d.jar");
+        Files.write(jar.toPath(), dummyJar);
+        Assert.assertEquals(1, detectionService.scan(data, index));
+        Assert.assertTrue(index.lookup(jar.getAbsolutePath(), jar.length(), jar.lastModified(),
+                FilterClassLoader.getInstance().getFilterSetVersion()).contains("application/x-java-jar"));
+
+        //Indexed with another filter set
+        File war = new File(data, "e.war");
+        Files.write(war.toPath(), dummyWar);
+        index.put(war.getAbsolutePath(), war.length(), war.lastModified(),
+                FilterClassLoader.getInstance().getFilterSetVersion() + 1, Collections.singleton("application/zip"));
+        Assert.assertEquals(1, detectionService.scan(data, index));
+        Assert.assertEquals(0, detectionService.scan(data, index));
+
+        //Deleted, removed by the prune following a complete scan
+        Assert.assertEquals(5, index.size());
+        Files.delete(jar.toPath());
+        index.prune();
+        Assert.assertEquals(0, detectionService.scan(data, index));
+        Assert.assertEquals(1, index.prune());
+        Assert.assertEquals(4, index.size());
+        Assert.assertEquals(0, detectionService.scan(data, index));
+
+        Assert.assertEquals(-1, detectionService.scan(null, index));
+        index.close();
+    }
+
+    @Test
+    public void scanLargeFile() throws Exception {
+        DetectionService detectionService = DetectionService.getInstance();
+        File data = folder.newFolder("large");
+
+        Files.write(new File(data, "a.jar").toPath(), dummyJar);
+
+        RandomAccessFile large = new RandomAccessFile(new File(data, "large.bin"), "rw");
+        large.setLength(DetectionService.MAX_SCAN_SIZE + 1); //Sparse, nothing is written
+        large.close();
+
+        DetectionIndex index = DetectionIndex.open(new File(folder.getRoot(), "index"));
+        Assert.assertEquals(1, detectionService.scan(data, index));
+        Assert.assertEquals(1, index.size());
+        index.close();
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ *    Copyright 2014 - 2016 Yannick Watier
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package org.filetypefinder.core;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class FilterCircuitBreakerTest {
+
+    @Test
+    public void tripAfterConsecutiveBreaches() {
+        FilterCircuitBreaker circuitBreaker = new FilterCircuitBreaker(1000, 0, 3, Long.MAX_VALUE);
+
+        Assert.assertTrue(circuitBreaker.hasBudget());
+
+        long generation = circuitBreaker.allowRequest();
+        circuitBreaker.record(generation, 2000);
+        circuitBreaker.record(generation, 2000);
+        circuitBreaker.record(generation, 10); //Reset the breaches
+        circuitBreaker.record(generation, 2000);
+        circuitBreaker.record(generation, -1);
+        Assert.assertFalse(circuitBreaker.isTripped());
+        Assert.assertEquals(generation, circuitBreaker.allowRequest());
+
+        circuitBreaker.record(generation, 2000);
+        Assert.assertTrue(circuitBreaker.isTripped());
+        Assert.assertEquals(FilterCircuitBreaker.REJECTED, circuitBreaker.allowRequest());
+    }
+
+    @Test
+    public void halfOpenProbe() {
+        FilterCircuitBreaker circuitBreaker = new FilterCircuitBreaker(1000, 0, 1, 0);
+
+        circuitBreaker.record(circuitBreaker.allowRequest(), -1);
+        Assert.assertTrue(circuitBreaker.isTripped());
+
+        long probe = circuitBreaker.allowRequest();
+        Assert.assertNotEquals(FilterCircuitBreaker.REJECTED, probe);
+        Assert.assertEquals(FilterCircuitBreaker.REJECTED, circuitBreaker.allowRequest()); //Only one probe at a time
+
+        circuitBreaker.record(probe, 2000);
+        Assert.assertTrue(circuitBreaker.isTripped());
+
+        probe = circuitBreaker.allowRequest();
+        Assert.assertNotEquals(FilterCircuitBreaker.REJECTED, probe);
+        circuitBreaker.record(probe, 10);
+        Assert.assertFalse(circuitBreaker.isTripped());
+        Assert.assertNotEquals(FilterCircuitBreaker.REJECTED, circuitBreaker.allowRequest());
+    }
+
+    @Test
+    public void staleRecord() {
+        FilterCircuitBreaker circuitBreaker = new FilterCircuitBreaker(1000, 0, 1, 0);
+
+        long before = circuitBreaker.allowRequest(); //Still running while the breaker opens
+        circuitBreaker.record(circuitBreaker.allowRequest(), -1);
+        Assert.assertTrue(circuitBreaker.isTripped());
+
+        long probe = circuitBreaker.allowRequest();
+        Assert.assertNotEquals(FilterCircuitBreaker.REJECTED, probe);
+
+        circuitBreaker.record(before, 10); //Not the result of the probe
+        Assert.assertTrue(circuitBreaker.isTripped());
+        Assert.assertEquals(FilterCircuitBreaker.REJECTED, circuitBreaker.allowRequest());
+
+        circuitBreaker.record(probe, 10);
+        Assert.assertFalse(circuitBreaker.isTripped());
+
+        circuitBreaker.record(before, -1); //Nor a breach of the closed breaker
+        Assert.assertFalse(circuitBreaker.isTripped());
+    }
+
+    @Test
+    public void byteBudget() {
+        FilterCircuitBreaker circuitBreaker = new FilterCircuitBreaker(0, 16, 1, Long.MAX_VALUE);
+
+        Assert.assertTrue(circuitBreaker.hasBudget());
+        Assert.assertFalse(circuitBreaker.exceedsByteBudget(16));
+        Assert.assertTrue(circuitBreaker.exceedsByteBudget(17));
+        Assert.assertFalse(circuitBreaker.isTripped());
+    }
+
+    @Test
+    public void noBudget() {
+        FilterCircuitBreaker circuitBreaker = new FilterCircuitBreaker(null);
+        Assert.assertFalse(circuitBreaker.hasBudget());
+    }
+}
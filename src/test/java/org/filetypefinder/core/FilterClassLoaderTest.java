@@ -0,0 +1,91 @@
+/*
+ *    Copyright 2014 - 2016 Yannick Watier
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package org.filetypefinder.core;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+public class FilterClassLoaderTest {
+    private static final String OVERRIDE = "org.filetypefinder.plugin.filters.Override";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void laterSourceOverrides() throws Exception {
+        File first = PluginClassLoaderTest.jar(folder, folder.newFile("first.jar"), OVERRIDE, "application/x-first", 'A');
+        File second = PluginClassLoaderTest.jar(folder, folder.newFile("second.jar"), OVERRIDE, "application/x-second", 'B');
+
+        List<Long> checksums = new ArrayList<Long>();
+        Filter filter = FilterClassLoader.loadFilters(Arrays.asList(first, second), checksums).get("Override");
+        Assert.assertTrue(filter.detect(new byte[]{'B'}));
+        Assert.assertFalse(filter.detect(new byte[]{'A'}));
+        Assert.assertEquals(2, checksums.size());
+
+        filter = FilterClassLoader.loadFilters(Arrays.asList(second, first), new ArrayList<Long>()).get("Override");
+        Assert.assertTrue(filter.detect(new byte[]{'A'}));
+        Assert.assertFalse(filter.detect(new byte[]{'B'}));
+    }
+
+    @Test
+    public void concurrentLoading() throws Exception {
+        List<File> sources = new ArrayList<File>();
+
+        //Each jar replaces the previous Override and adds its own filter
+        for (int i = 0; i < 8; i++) {
+            char first = (char) ('a' + i);
+            sources.add(PluginClassLoaderTest.jar(folder, folder.newFile("plugin" + i + ".jar"), OVERRIDE, "application/x-override", first));
+            sources.add(PluginClassLoaderTest.jar(folder, folder.newFile("own" + i + ".jar"),
+                    "org.filetypefinder.plugin.filters.Own" + i, "application/x-own" + i, first));
+        }
+
+        List<Long> checksums = new ArrayList<Long>();
+        Map<String, Filter> filters = FilterClassLoader.loadFilters(sources, checksums);
+
+        Assert.assertEquals(9, filters.size());
+        Assert.assertEquals(16, checksums.size());
+        Assert.assertTrue(filters.get("Override").detect(new byte[]{'h'}));
+        for (int i = 0; i < 8; i++) {
+            Assert.assertTrue(filters.get("Own" + i).detect(new byte[]{(byte) ('a' + i)}));
+        }
+    }
+
+    @Test
+    public void pluginSources() throws Exception {
+        File directory = folder.newFolder("plugins");
+        File other = PluginClassLoaderTest.jar(folder, folder.newFile("other.jar"), "org.filetypefinder.plugin.filters.Other", "application/x-other", 'O');
+        File b = PluginClassLoaderTest.jar(folder, new File(directory, "b.jar"), OVERRIDE, "application/x-b", 'B');
+        File a = PluginClassLoaderTest.jar(folder, new File(directory, "a.jar"), OVERRIDE, "application/x-a", 'A');
+        Assert.assertTrue(new File(directory, "notes.txt").createNewFile());
+
+        List<File> sources = FilterClassLoader.pluginSources(directory.getPath() + File.pathSeparator + " " + File.pathSeparator + other.getPath());
+        Assert.assertEquals(Arrays.asList(directory, a, b, other), sources);
+        Assert.assertTrue(FilterClassLoader.pluginSources(null).isEmpty());
+
+        //The jars of the directory are merged by name, b.jar is the last one
+        Filter filter = FilterClassLoader.loadFilters(sources, new ArrayList<Long>()).get("Override");
+        Assert.assertTrue(filter.detect(new byte[]{'B'}));
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ *    Copyright 2014 - 2016 Yannick Watier
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package org.filetypefinder.core;
+
+import org.filetypefinder.core.filters.DummyFilter;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+public class PluginClassLoaderTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void loadFromJar() throws Exception {
+        File jar = jar(folder, new File(folder.getRoot(), "jar-only.jar"), "org.filetypefinder.plugin.filters.JarOnly", "application/x-jar-only", 'J');
+
+        PluginClassLoader plugin = new PluginClassLoader(jar, Filter.class.getClassLoader());
+        plugin.loadFilters();
+        plugin.instantiateFilters();
+
+        Assert.assertEquals(1, plugin.getChecksums().size());
+
+        Filter filter = plugin.getFilters().get("JarOnly");
+        Assert.assertNotNull(filter);
+        Assert.assertSame(plugin, filter.getClass().getClassLoader());
+        Assert.assertTrue(filter.detect(new byte[]{'J'}));
+
+        try {
+            Class.forName("org.filetypefinder.plugin.filters.JarOnly");
+            Assert.fail("The filter must only be in the jar");
+        } catch (ClassNotFoundException e) {
+            //Expected
+        }
+    }
+
+    @Test
+    public void overrideClassPath() throws Exception {
+        //Same name as the DummyFilter of the test class path, but detects 'X' instead of 'D'
+        File jar = jar(folder, new File(folder.getRoot(), "dummy.jar"), DummyFilter.class.getName(), "application/x-dummy", 'X');
+
+        PluginClassLoader plugin = new PluginClassLoader(jar, Filter.class.getClassLoader());
+        plugin.loadFilters();
+        plugin.instantiateFilters();
+
+        Filter filter = plugin.getFilters().get("DummyFilter");
+        Assert.assertNotNull(filter);
+        Assert.assertSame(plugin, filter.getClass().getClassLoader());
+        Assert.assertTrue(filter.detect(new byte[]{'X'}));
+        Assert.assertFalse(filter.detect(new byte[]{'D'}));
+    }
+
+    @Test
+    public void loadFromDirectory() throws Exception {
+        File classes = new File(DummyFilter.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+
+        PluginClassLoader plugin = new PluginClassLoader(classes, Filter.class.getClassLoader());
+        plugin.loadFilters();
+        Assert.assertTrue(plugin.getFilters().isEmpty()); //Not instantiated yet
+        plugin.instantiateFilters();
+
+        Filter filter = plugin.getFilters().get("DummyFilter");
+        Assert.assertNotNull(filter);
+        Assert.assertTrue(filter.detect(new byte[]{'D'}));
+    }
+
+    /**
+     * @param folder    - The temporary folder of the test, used for the sources and the classes
+     * @param jar       - The jar to be written
+     * @param className - The fully qualified name of the filter to be compiled
+     * @param mimeType  - The media type of the filter
+     * @param first     - The first byte detected by the filter
+     * @return The jar, containing only the compiled filter
+     */
+    static File jar(TemporaryFolder folder, File jar, String className, String mimeType, char first) throws Exception {
+        int lastDot = className.lastIndexOf('.');
+        String packageName = className.substring(0, lastDot);
+        String simpleName = className.substring(lastDot + 1);
+        String entryName = className.replace('.', '/') + ".class";
+
+        File sources = folder.newFolder();
+        File source = new File(sources, simpleName + ".java");
+        String code = "package " + packageName + ";\n" +
+                "@org.filetypefinder.core.FilterProperties(mimeType = \"" + mimeType + "\")\n" +
+                "public class " + simpleName + " implements org.filetypefinder.core.Filter {\n" +
+                "    public boolean detect(byte[] bytes) {\n" +
+                "        return bytes.length > 0 && bytes[0] == '" + first + "';\n" +
+                "    }\n" +
+                "}\n";
+        Files.write(source.toPath(), code.getBytes(Charset.forName("US-ASCII")));
+
+        File classes = folder.newFolder();
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        Assert.assertNotNull("A JDK is needed to compile the test plugin", compiler);
+        Assert.assertEquals(0, compiler.run(null, null, null,
+                "-classpath", System.getProperty("java.class.path"), "-d", classes.getPath(), source.getPath()));
+
+        JarOutputStream out = new JarOutputStream(new FileOutputStream(jar));
+
+        out.putNextEntry(new JarEntry("META-INF/"));
+        out.closeEntry();
+
+        out.putNextEntry(new JarEntry(entryName));
+        InputStream is = new FileInputStream(new File(classes, entryName));
+        byte[] buffer = new byte[8192];
+        int nRead;
+        while ((nRead = is.read(buffer, 0, buffer.length)) != -1) {
+            out.write(buffer, 0, nRead);
+        }
+        is.close();
+        out.closeEntry();
+        out.close();
+
+        return jar;
+    }
+}
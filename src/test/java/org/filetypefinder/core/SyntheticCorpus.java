@@ -0,0 +1,218 @@
+/*
+ *    Copyright 2014 - 2016 Yannick Watier
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package org.filetypefinder.core;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.TimeZone;
+import java.util.jar.Attributes;
+import java.util.jar.JarFile;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * A reproducible corpus of ZIP / JAR / WAR archives (like the ones of DetectionServiceTest), random binaries and text.
+ */
+public final class SyntheticCorpus {
+    /**
+     * The modification time of every archive entry (2016-01-01 00:00 UTC), the current time would change the bytes
+     */
+    static final long ENTRY_TIME = 1451606400000L;
+
+    /**
+     * ZipEntry.setTime stores a DOS time in the default time zone, shifted so the stored fields are the UTC ones on any machine
+     */
+    private static final long DOS_TIME = ENTRY_TIME - TimeZone.getDefault().getOffset(ENTRY_TIME);
+
+    private static final String[] WORDS = {
+            "file", "type", "finder", "media", "detection", "filter", "tree", "leaf", "root", "binary",
+            "text", "java", "library", "archive", "service", "the", "a", "of", "to", "and"
+    };
+
+    private final List<Kind> kinds;
+    private final List<byte[]> samples;
+
+    private SyntheticCorpus() {
+        kinds = new ArrayList<Kind>();
+        samples = new ArrayList<byte[]>();
+    }
+
+    /**
+     * @param seed    - The seed of the generator, the same seed gives the same corpus
+     * @param count   - The number of samples
+     * @param minSize - The minimum size (in bytes) of a sample
+     * @param maxSize - The maximum size (in bytes) of a sample
+     * @return The generated corpus
+     */
+    public static SyntheticCorpus generate(long seed, int count, int minSize, int maxSize) {
+        Random random = new Random(seed);
+        SyntheticCorpus corpus = new SyntheticCorpus();
+        Kind[] values = Kind.values();
+
+        for (int i = 0; i < count; i++) {
+            Kind kind = values[random.nextInt(values.length)];
+            int size = minSize + ((maxSize > minSize) ? random.nextInt(maxSize - minSize + 1) : 0);
+
+            corpus.kinds.add(kind);
+            corpus.samples.add(generate(kind, size, random));
+        }
+
+        return corpus;
+    }
+
+    /**
+     * @param kind   - The kind of sample
+     * @param size   - The approximate size (in bytes) of the sample, the archives are slightly larger
+     * @param random - The generator
+     * @return The binary of the sample
+     */
+    public static byte[] generate(Kind kind, int size, Random random) {
+        try {
+            switch (kind) {
+                case ZIP:
+                    return zip(size, random);
+                case JAR:
+                    return jar(size, random, false);
+                case WAR:
+                    return jar(size, random, true);
+                case TEXT:
+                    return text(size, random);
+                default:
+                    byte[] bytes = new byte[size];
+                    random.nextBytes(bytes);
+                    return bytes;
+            }
+        } catch (IOException e) { //Written in memory
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static byte[] zip(int size, Random random) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ZipOutputStream zip = new ZipOutputStream(bytes);
+
+        addEntry(zip, "data.bin", size, random);
+        zip.close();
+
+        return bytes.toByteArray();
+    }
+
+    private static byte[] jar(int size, Random random, boolean war) throws IOException {
+        Manifest manifest = new Manifest();
+        manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        JarOutputStream jar = new JarOutputStream(bytes);
+
+        //Written as an explicit entry, JarOutputStream(out, manifest) would date it with the current time
+        ByteArrayOutputStream manifestBytes = new ByteArrayOutputStream();
+        manifest.write(manifestBytes);
+        addEntry(jar, JarFile.MANIFEST_NAME, manifestBytes.toByteArray());
+
+        if (war) {
+            addEntry(jar, "WEB-INF/", new byte[0]);
+            addEntry(jar, "WEB-INF/classes/Data.class", size, random);
+        } else {
+            addEntry(jar, "org/filetypefinder/Data.class", size, random);
+        }
+
+        jar.close();
+
+        return bytes.toByteArray();
+    }
+
+    private static void addEntry(ZipOutputStream zip, String name, int size, Random random) throws IOException {
+        byte[] content = new byte[size];
+        random.nextBytes(content);
+
+        addEntry(zip, name, content);
+    }
+
+    /**
+     * The entries are stored, the output of the deflater may change with the zlib of the JDK
+     */
+    private static void addEntry(ZipOutputStream zip, String name, byte[] content) throws IOException {
+        CRC32 crc32 = new CRC32();
+        crc32.update(content);
+
+        ZipEntry entry = new ZipEntry(name);
+        entry.setMethod(ZipEntry.STORED);
+        entry.setSize(content.length);
+        entry.setCompressedSize(content.length);
+        entry.setCrc(crc32.getValue());
+        entry.setTime(DOS_TIME);
+
+        zip.putNextEntry(entry);
+        zip.write(content);
+        zip.closeEntry();
+    }
+
+    private static byte[] text(int size, Random random) {
+        StringBuilder text = new StringBuilder(size + 16);
+
+        while (text.length() < size) {
+            text.append(WORDS[random.nextInt(WORDS.length)]);
+            text.append((random.nextInt(12) == 0) ? '\n' : ' ');
+        }
+
+        text.setLength(size);
+
+        return text.toString().getBytes(Charset.forName("US-ASCII"));
+    }
+
+    /**
+     * @return The number of samples
+     */
+    public int size() {
+        return samples.size();
+    }
+
+    /**
+     * @param index - The index of the sample
+     * @return The binary of the sample
+     */
+    public byte[] get(int index) {
+        return samples.get(index);
+    }
+
+    /**
+     * @param index - The index of the sample
+     * @return The kind of the sample
+     */
+    public Kind getKind(int index) {
+        return kinds.get(index);
+    }
+
+    /**
+     * @return A List containing the binary of the samples
+     */
+    public List<byte[]> getSamples() {
+        return Collections.unmodifiableList(samples);
+    }
+
+    public enum Kind {
+        ZIP, JAR, WAR, BINARY, TEXT
+    }
+}
@@ -0,0 +1,291 @@
+/*
+ *    Copyright 2014 - 2016 Yannick Watier
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package org.filetypefinder.core;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Drive the DetectionService from 1 to N threads over a synthetic corpus, and report the throughput, the latency
+ * percentiles and the scaling efficiency (throughput of N threads / N times the throughput of a single thread).
+ * <p>
+ * Usage: ThroughputHarness [maxThreads] [secondsPerStep] [corpusSize] [minSize] [maxSize] [seed]
+ */
+public final class ThroughputHarness {
+    private final SyntheticCorpus corpus;
+    private final long stepDuration;
+
+    /**
+     * @param corpus       - The corpus to be analysed
+     * @param stepDuration - The duration (in nanoseconds) of each thread count
+     */
+    public ThroughputHarness(SyntheticCorpus corpus, long stepDuration) {
+        this.corpus = corpus;
+        this.stepDuration = stepDuration;
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        int maxThreads = (args.length > 0) ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors();
+        int seconds = (args.length > 1) ? Integer.parseInt(args[1]) : 5;
+        int corpusSize = (args.length > 2) ? Integer.parseInt(args[2]) : 1000;
+        int minSize = (args.length > 3) ? Integer.parseInt(args[3]) : 64;
+        int maxSize = (args.length > 4) ? Integer.parseInt(args[4]) : 64 * 1024;
+        long seed = (args.length > 5) ? Long.parseLong(args[5]) : 42;
+
+        SyntheticCorpus corpus = SyntheticCorpus.generate(seed, corpusSize, minSize, maxSize);
+        ThroughputHarness harness = new ThroughputHarness(corpus, TimeUnit.SECONDS.toNanos(seconds));
+
+        harness.warmUp(maxThreads);
+        print(harness.run(maxThreads), System.out);
+    }
+
+    /**
+     * @param threads - The number of threads used to warm up the JIT
+     * @throws InterruptedException If the current thread is interrupted
+     */
+    public void warmUp(int threads) throws InterruptedException {
+        runStep(Math.max(1, threads));
+    }
+
+    /**
+     * @param maxThreads - The maximum number of threads
+     * @return A List containing one result per thread count, from 1 to maxThreads
+     * @throws InterruptedException If the current thread is interrupted
+     */
+    public List<Result> run(int maxThreads) throws InterruptedException {
+        List<Result> results = new ArrayList<Result>();
+        double singleThroughput = 0;
+
+        for (int threads = 1; threads <= maxThreads; threads++) {
+            Result result = runStep(threads);
+
+            if (threads == 1) {
+                singleThroughput = result.throughput;
+            }
+
+            result.efficiency = (singleThroughput > 0) ? result.throughput / (threads * singleThroughput) : 0;
+            results.add(result);
+        }
+
+        return results;
+    }
+
+    /**
+     * @param threads - The number of threads
+     * @return The throughput and latencies of the step
+     * @throws InterruptedException If the current thread is interrupted
+     */
+    private Result runStep(int threads) throws InterruptedException {
+        final DetectionService detectionService = DetectionService.getInstance();
+        final CountDownLatch start = new CountDownLatch(1);
+        final Worker[] workers = new Worker[threads];
+        Thread[] pool = new Thread[threads];
+
+        for (int i = 0; i < threads; i++) {
+            workers[i] = new Worker(detectionService, start, i * corpus.size() / threads);
+            pool[i] = new Thread(workers[i], "throughput-harness-" + i);
+            pool[i].start();
+        }
+
+        long begin = System.nanoTime();
+        start.countDown();
+
+        for (Thread thread : pool) {
+            thread.join();
+        }
+
+        long elapsed = System.nanoTime() - begin;
+
+        int count = 0;
+        for (Worker worker : workers) {
+            count += worker.count;
+        }
+
+        long[] latencies = new long[count];
+        int offset = 0;
+        for (Worker worker : workers) {
+            System.arraycopy(worker.latencies, 0, latencies, offset, worker.count);
+            offset += worker.count;
+        }
+        Arrays.sort(latencies);
+
+        Result result = new Result();
+        result.threads = threads;
+        result.operations = count;
+        result.throughput = count / (elapsed / 1e9);
+        result.p50 = percentile(latencies, 0.50);
+        result.p90 = percentile(latencies, 0.90);
+        result.p99 = percentile(latencies, 0.99);
+        result.p999 = percentile(latencies, 0.999);
+        result.max = (count > 0) ? latencies[count - 1] : 0;
+
+        return result;
+    }
+
+    /**
+     * @param sorted     - The sorted latencies
+     * @param percentile - The percentile, between 0 and 1
+     * @return The latency (in nanoseconds) at the percentile, 0 if there's no latency
+     */
+    private static long percentile(long[] sorted, double percentile) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+
+        int index = (int) Math.ceil(percentile * sorted.length) - 1;
+
+        return sorted[Math.max(0, Math.min(index, sorted.length - 1))];
+    }
+
+    /**
+     * @param results - The results of each thread count
+     * @param out     - The stream to print the table to
+     */
+    public static void print(List<Result> results, PrintStream out) {
+        out.println(String.format(Locale.ROOT, "%7s %12s %14s %10s %10s %10s %10s %10s %10s",
+                "threads", "operations", "ops/s", "p50(us)", "p90(us)", "p99(us)", "p99.9(us)", "max(us)", "eff/core"));
+
+        for (Result result : results) {
+            out.println(String.format(Locale.ROOT, "%7d %12d %14.1f %10.1f %10.1f %10.1f %10.1f %10.1f %9.1f%%",
+                    result.threads, result.operations, result.throughput,
+                    result.p50 / 1e3, result.p90 / 1e3, result.p99 / 1e3, result.p999 / 1e3, result.max / 1e3,
+                    result.efficiency * 100));
+        }
+    }
+
+    public static final class Result {
+        int threads;
+        int operations;
+        double throughput;
+        long p50;
+        long p90;
+        long p99;
+        long p999;
+        long max;
+        double efficiency;
+
+        public int getThreads() {
+            return threads;
+        }
+
+        public int getOperations() {
+            return operations;
+        }
+
+        /**
+         * @return The number of detections per second
+         */
+        public double getThroughput() {
+            return throughput;
+        }
+
+        /**
+         * @return The median latency (in nanoseconds)
+         */
+        public long getP50() {
+            return p50;
+        }
+
+        /**
+         * @return The latency (in nanoseconds) of the 90th percentile
+         */
+        public long getP90() {
+            return p90;
+        }
+
+        /**
+         * @return The latency (in nanoseconds) of the 99th percentile
+         */
+        public long getP99() {
+            return p99;
+        }
+
+        /**
+         * @return The latency (in nanoseconds) of the 99.9th percentile
+         */
+        public long getP999() {
+            return p999;
+        }
+
+        /**
+         * @return The maximum latency (in nanoseconds)
+         */
+        public long getMax() {
+            return max;
+        }
+
+        /**
+         * @return The throughput of the step divided by the thread count times the throughput of a single thread
+         */
+        public double getEfficiency() {
+            return efficiency;
+        }
+    }
+
+    private final class Worker implements Runnable {
+        private final DetectionService detectionService;
+        private final CountDownLatch start;
+        private int next;
+        private long[] latencies;
+        private int count;
+
+        Worker(DetectionService detectionService, CountDownLatch start, int first) {
+            this.detectionService = detectionService;
+            this.start = start;
+            next = first;
+            latencies = new long[1024];
+        }
+
+        public void run() {
+            try {
+                start.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+
+            long deadline = System.nanoTime() + stepDuration;
+            int size = corpus.size();
+
+            if (size == 0) {
+                return;
+            }
+
+            long end;
+            do {
+                byte[] sample = corpus.get(next);
+                next = (next + 1) % size;
+
+                if (count == latencies.length) {
+                    latencies = Arrays.copyOf(latencies, count * 2);
+                }
+
+                //Only the detection is timed, not the bookkeeping of the samples
+                long begin = System.nanoTime();
+                detectionService.analyse(sample);
+                end = System.nanoTime();
+
+                latencies[count++] = end - begin;
+            } while (end < deadline);
+        }
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ *    Copyright 2014 - 2016 Yannick Watier
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package org.filetypefinder.core;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+public class ThroughputHarnessTest {
+    private static final String CORPUS_SHA1 = "603d81e153bdacce59dc8e5c79506ba9671fd5b9";
+
+    @Test
+    public void reproducibleCorpus() throws Exception {
+        SyntheticCorpus first = SyntheticCorpus.generate(7, 50, 16, 4096);
+        SyntheticCorpus second = SyntheticCorpus.generate(7, 50, 16, 4096);
+
+        Assert.assertEquals(50, first.size());
+        Assert.assertEquals(CORPUS_SHA1, sha1(first)); //The same bytes on any machine, in any time zone
+        for (int i = 0; i < first.size(); i++) {
+            Assert.assertEquals(first.getKind(i), second.getKind(i));
+            Assert.assertTrue(Arrays.equals(first.get(i), second.get(i)));
+
+            switch (first.getKind(i)) {
+                case ZIP:
+                case JAR:
+                case WAR:
+                    Assert.assertEquals(0x50, first.get(i)[0]);
+                    Assert.assertEquals(0x4B, first.get(i)[1]);
+                    assertEntryTimes(first.get(i));
+                    break;
+                case TEXT:
+                    Assert.assertEquals(ContentKind.ASCII, ContentClassifier.classify(first.get(i)));
+                    break;
+            }
+        }
+    }
+
+    /**
+     * The same seed must give the same bytes at any time, so no entry can carry the current time
+     */
+    private static void assertEntryTimes(byte[] archive) throws IOException {
+        ZipInputStream zip = new ZipInputStream(new ByteArrayInputStream(archive));
+        int entries = 0;
+
+        for (ZipEntry entry = zip.getNextEntry(); entry != null; entry = zip.getNextEntry()) {
+            //Read back in the default time zone, like it was written
+            Assert.assertEquals(entry.getName(), SyntheticCorpus.ENTRY_TIME, entry.getTime() + TimeZone.getDefault().getOffset(entry.getTime()));
+            entries++;
+        }
+
+        Assert.assertTrue(entries > 0);
+    }
+
+    private static String sha1(SyntheticCorpus corpus) throws NoSuchAlgorithmException {
+        MessageDigest digest = MessageDigest.getInstance("SHA-1");
+
+        for (byte[] sample : corpus.getSamples()) {
+            digest.update(sample);
+        }
+
+        return String.format("%040x", new BigInteger(1, digest.digest()));
+    }
+
+    @Test
+    public void run() throws Exception {
+        ThroughputHarness harness = new ThroughputHarness(SyntheticCorpus.generate(7, 20, 16, 1024), TimeUnit.MILLISECONDS.toNanos(50));
+        List<ThroughputHarness.Result> results = harness.run(2);
+
+        Assert.assertEquals(2, results.size());
+        for (ThroughputHarness.Result result : results) {
+            Assert.assertTrue(result.getOperations() > 0);
+            Assert.assertTrue(result.getThroughput() > 0);
+            Assert.assertTrue(result.getP50() > 0);
+            Assert.assertTrue(result.getP50() <= result.getP90());
+            Assert.assertTrue(result.getP90() <= result.getP99());
+            Assert.assertTrue(result.getP99() <= result.getP999());
+            Assert.assertTrue(result.getP999() <= result.getMax());
+        }
+        Assert.assertEquals(1.0, results.get(0).getEfficiency(), 1e-9);
+    }
+}
@@ -0,0 +1,34 @@
+/*
+ *    Copyright 2014 - 2016 Yannick Watier
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package org.filetypefinder.core.filters;
+
+import org.filetypefinder.core.Filter;
+import org.filetypefinder.core.FilterProperties;
+
+/**
+ * A filter throwing an exception on the file binaries starting with "FAIL"
+ */
+@FilterProperties(mimeType = "application/x-failing", timeBudget = 1000)
+public class Failing implements Filter {
+    public boolean detect(byte[] bytes) {
+        if (bytes.length >= 4 && bytes[0] == 'F' && bytes[1] == 'A' && bytes[2] == 'I' && bytes[3] == 'L') {
+            throw new IllegalStateException("Cannot read the file binary");
+        }
+
+        return false;
+    }
+}
@@ -0,0 +1,32 @@
+/*
+ *    Copyright 2014 - 2016 Yannick Watier
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package org.filetypefinder.core.filters;
+
+import org.filetypefinder.core.ContentKind;
+import org.filetypefinder.core.Filter;
+import org.filetypefinder.core.FilterProperties;
+
+import java.nio.charset.Charset;
+
+@FilterProperties(mimeType = "application/x-java-jar", parent = "Zip", contentKinds = ContentKind.BINARY)
+public class Jar implements Filter {
+    public boolean detect(byte[] bytes) {
+        String content = new String(bytes, Charset.forName("ISO-8859-1"));
+
+        return content.contains("META-INF/MANIFEST.MF") && !content.contains("WEB-INF/");
+    }
+}
@@ -0,0 +1,215 @@
+/*
+ *    Copyright 2014 - 2016 Yannick Watier
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package org.filetypefinder.index;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+public class DetectionIndexTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final Set<String> zip = new HashSet<String>(Arrays.asList("application/zip", "application/x-java-jar"));
+
+    @Test
+    public void lookup() throws Exception {
+        DetectionIndex index = DetectionIndex.open(new File(folder.getRoot(), "index"));
+
+        Assert.assertNull(index.lookup("/a.jar", 10, 20, 1));
+
+        index.put("/a.jar", 10, 20, 1, zip);
+        index.put("/b.txt", 5, 20, 1, Collections.<String>emptySet());
+
+        Assert.assertEquals(zip, index.lookup("/a.jar", 10, 20, 1));
+        Assert.assertEquals(Collections.<String>emptySet(), index.lookup("/b.txt", 5, 20, 1));
+        Assert.assertNull(index.lookup("/a.jar", 11, 20, 1)); //Size changed
+        Assert.assertNull(index.lookup("/a.jar", 10, 21, 1)); //Modified
+        Assert.assertNull(index.lookup("/a.jar", 10, 20, 2)); //Filter set updated
+        Assert.assertEquals(2, index.size());
+
+        index.close();
+    }
+
+    @Test
+    public void reopen() throws Exception {
+        File file = new File(folder.getRoot(), "index");
+
+        DetectionIndex index = DetectionIndex.open(file);
+        index.put("/a.jar", 10, 20, 1, zip);
+        index.close();
+
+        index = DetectionIndex.open(file);
+        Assert.assertEquals(1, index.size());
+        Assert.assertEquals(zip, index.lookup("/a.jar", 10, 20, 1));
+        index.close();
+    }
+
+    @Test
+    public void grow() throws Exception {
+        File file = new File(folder.getRoot(), "index");
+
+        DetectionIndex index = DetectionIndex.open(file);
+        for (int i = 0; i < 5000; i++) {
+            index.put("/file" + i, i, i, 1, (i % 2 == 0) ? zip : Collections.singleton("text/plain"));
+        }
+        index.close();
+
+        index = DetectionIndex.open(file);
+        Assert.assertEquals(5000, index.size());
+        for (int i = 0; i < 5000; i++) {
+            Assert.assertEquals((i % 2 == 0) ? zip : Collections.singleton("text/plain"), index.lookup("/file" + i, i, i, 1));
+        }
+        index.close();
+    }
+
+    @Test
+    public void growOnce() throws Exception {
+        File file = new File(folder.getRoot(), "index");
+
+        DetectionIndex index = DetectionIndex.open(file);
+        Assert.assertTrue(file.length() < 64 + 2048 * 32); //1024 slots
+
+        for (int i = 0; i < 1000; i++) { //Over 70% of 1024, under 70% of 2048
+            index.put("/file" + i, i, i, 1, zip);
+        }
+        index.close();
+
+        //Twice as large: the header, 2048 slots of 32 bytes and the small media types table
+        Assert.assertTrue(file.length() > 64 + 2048 * 32);
+        Assert.assertTrue(file.length() < 64 + 2048 * 32 + 1024);
+    }
+
+    @Test
+    public void openBeforeClose() throws Exception {
+        File file = new File(folder.getRoot(), "index");
+
+        DetectionIndex index = DetectionIndex.open(file);
+        index.put("/a.jar", 10, 20, 1, zip);
+        index.put("/b.jar", 10, 20, 1, zip);
+        index.put("/a.jar", 11, 21, 1, zip); //Updated, not added
+
+        DetectionIndex other = DetectionIndex.open(file);
+        Assert.assertEquals(2, other.size());
+        other.close();
+
+        index.put("/c.jar", 10, 20, 1, zip);
+        index.close();
+
+        index = DetectionIndex.open(file);
+        Assert.assertEquals(3, index.size());
+        Assert.assertEquals(zip, index.lookup("/c.jar", 10, 20, 1));
+        index.close();
+    }
+
+    @Test
+    public void otherFile() throws Exception {
+        File file = new File(folder.getRoot(), "notes.txt");
+        byte[] content = "Not an index, it must never be replaced by one".getBytes();
+        Files.write(file.toPath(), content);
+
+        try {
+            DetectionIndex.open(file);
+            Assert.fail("Only an empty file or an index can be opened");
+        } catch (IOException e) {
+            //Expected
+        }
+
+        Assert.assertTrue(Arrays.equals(content, Files.readAllBytes(file.toPath())));
+    }
+
+    @Test
+    public void otherFormatVersion() throws Exception {
+        File file = new File(folder.getRoot(), "index");
+
+        DetectionIndex index = DetectionIndex.open(file);
+        index.put("/a.jar", 10, 20, 1, zip);
+        index.close();
+
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        randomAccessFile.seek(4);
+        randomAccessFile.writeInt(Integer.MAX_VALUE); //Written by another version of the library
+        randomAccessFile.close();
+
+        index = DetectionIndex.open(file); //Rebuilt
+        Assert.assertEquals(0, index.size());
+        Assert.assertNull(index.lookup("/a.jar", 10, 20, 1));
+        index.close();
+    }
+
+    @Test
+    public void remove() throws Exception {
+        DetectionIndex index = DetectionIndex.open(new File(folder.getRoot(), "index"));
+
+        for (int i = 0; i < 600; i++) { //Enough entries for clusters of collisions
+            index.put("/file" + i, i, i, 1, zip);
+        }
+
+        Assert.assertFalse(index.remove("/missing"));
+        for (int i = 0; i < 600; i += 3) {
+            Assert.assertTrue(index.remove("/file" + i));
+        }
+        Assert.assertFalse(index.remove("/file0"));
+        Assert.assertEquals(400, index.size());
+
+        for (int i = 0; i < 600; i++) {
+            Assert.assertEquals((i % 3 == 0) ? null : zip, index.lookup("/file" + i, i, i, 1));
+        }
+        index.close();
+    }
+
+    @Test
+    public void prune() throws Exception {
+        File file = new File(folder.getRoot(), "index");
+
+        DetectionIndex index = DetectionIndex.open(file);
+        for (int i = 0; i < 2000; i++) { //Grows while the entries are put
+            index.put("/file" + i, i, i, 1, zip);
+        }
+        index.close();
+
+        index = DetectionIndex.open(file);
+        for (int i = 0; i < 2000; i += 2) {
+            Assert.assertEquals(zip, index.lookup("/file" + i, i, i, 1)); //Seen
+        }
+        for (int i = 2000; i < 3000; i++) { //Seen, then grows again
+            index.put("/file" + i, i, i, 1, zip);
+        }
+
+        Assert.assertEquals(1000, index.prune());
+        Assert.assertEquals(2000, index.size());
+        for (int i = 0; i < 3000; i++) {
+            Assert.assertEquals((i < 2000 && i % 2 == 1) ? null : zip, index.lookup("/file" + i, i, i, 1));
+        }
+
+        Assert.assertEquals(0, index.prune()); //Everything was just looked up
+        Assert.assertEquals(2000, index.prune()); //Nothing since the last prune
+        Assert.assertEquals(0, index.size());
+        index.close();
+    }
+}